@@ -0,0 +1,1043 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Microbenchmarks for ElementList and the Book checkout/check-in paths. Every benchmark is
+ * run for a number of warmup rounds before the measured rounds, and the results are printed
+ * as a table and written to a JSON file so runs can be compared release over release.
+ *
+ * Usage: java -Xmx4g Benchmark [maxSize] [output.json]
+ * The list sizes run from 10^3 up to maxSize (10^6 by default) in powers of ten. UnrolledElementList
+ * is measured next to ElementList for the operations that walk memory rather than the name index.
+ *
+ * Usage: java Benchmark queue [maxThreads] [output.json]
+ * Compares ConcurrentElementList with a synchronized ElementList from 1 up to maxThreads
+ * (64 by default) threads, checking that every appended element is removed exactly once.
+ *
+ * Usage: java Benchmark shards [maxShards] [output.json]
+ * Runs a rental workload against ShardedLibrary from 1 up to maxShards (the number of cores by
+ * default) shards, with one client thread per shard.
+ *
+ * Usage: java Benchmark sorted [maxSize] [output.json]
+ * Compares SortedElementList with ElementList and a TreeMap when adding, finding and removing by
+ * name and iterating in name order, after checking SortedElementList against the TreeMap.
+ *
+ * Usage: java Benchmark alloc [output.json]
+ * Reports the bytes allocated per operation by steady ElementList and waitlist churn, measured
+ * with the allocation counter of the benchmark thread, with and without node pooling.
+ * @author Dillon Evans
+ */
+public class Benchmark
+{
+    private static final int WARMUP_ROUNDS = 3, MEASURED_ROUNDS = 5;
+    private static final long SEED = 3353;
+    private static final int QUEUE_OPERATIONS = 200_000;
+    private static final int SHARD_BOOKS = 10_000, SHARD_STUDENTS = 20_000, SHARD_OPERATIONS = 1_000_000;
+    private static final int CHURN_OPERATIONS = 1_000_000, CHURN_POOL = 8;
+    private static final int SORTED_CHECK_SIZE = 10_000;
+
+    //Results are accumulated here so the JIT cannot remove the benchmarked work
+    static volatile long sink;
+
+    //Rounds that build their list first report when the timed loop began
+    private static long roundStart, setupNanos;
+
+    //Allocation rounds report the bytes their loop allocated
+    private static long loopBytes;
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    /**
+     * A single benchmark run over a list of size n
+     */
+    private interface Round
+    {
+        /**
+         * Runs the benchmark once
+         * @param n The size of the list
+         * @return The number of operations performed
+         */
+        long run(int n);
+    }
+
+    /**
+     * The measured result of a benchmark at one size
+     */
+    private static class Result
+    {
+        private String name, unit;
+        private int size;
+        private double meanNanosPerOp, stdDevNanosPerOp;
+
+        /**
+         * Creates a new Result object
+         * @param name The name of the benchmark
+         * @param size The size of the list
+         * @param samples The nanoseconds per operation of every measured round
+         */
+        private Result(String name, int size, double[] samples) {this(name, size, samples, "ns/op");}
+
+        /**
+         * Creates a new Result object
+         * @param name The name of the benchmark
+         * @param size The size of the list
+         * @param samples The measurement per operation of every measured round
+         * @param unit The unit of the samples
+         */
+        private Result(String name, int size, double[] samples, String unit)
+        {
+            this.name = name;
+            this.size = size;
+            this.unit = unit;
+            for (double sample : samples) {meanNanosPerOp += sample / samples.length;}
+            for (double sample : samples)
+            {
+                stdDevNanosPerOp += (sample - meanNanosPerOp) * (sample - meanNanosPerOp) / samples.length;
+            }
+            stdDevNanosPerOp = Math.sqrt(stdDevNanosPerOp);
+        }
+
+        /**
+         * Returns the result as a JSON object
+         * @return The result as a JSON object
+         */
+        private String toJson()
+        {
+            return String.format(Locale.ROOT, "{\"benchmark\": \"%s\", \"size\": %d, \"rounds\": %d, \"unit\": \"%s\", \"mean\": %.3f, \"stdDev\": %.3f}",
+                name, size, MEASURED_ROUNDS, unit, meanNanosPerOp, stdDevNanosPerOp);
+        }
+    }
+
+    private static String[] names;
+    private static ArrayList<Result> results = new ArrayList<>();
+
+    /**
+     * The benchmark entry point
+     * @param args The largest list size and the path of the JSON output
+     */
+    public static void main(String[] args)
+    {
+        if (args.length > 0 && args[0].equals("queue"))
+        {
+            int maxThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+            benchmarkQueues(maxThreads, (args.length > 2) ? args[2] : "benchmark-results.json");
+            return;
+        }
+        if (args.length > 0 && args[0].equals("alloc"))
+        {
+            benchmarkAllocation((args.length > 1) ? args[1] : "benchmark-results.json");
+            return;
+        }
+        if (args.length > 0 && args[0].equals("sorted"))
+        {
+            int maxSize = (args.length > 1) ? Integer.parseInt(args[1]) : 1_000_000;
+            benchmarkSorted(maxSize, (args.length > 2) ? args[2] : "benchmark-results.json");
+            return;
+        }
+        if (args.length > 0 && args[0].equals("shards"))
+        {
+            int maxShards = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            benchmarkShards(maxShards, (args.length > 2) ? args[2] : "benchmark-results.json");
+            return;
+        }
+
+        int maxSize = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        String output = (args.length > 1) ? args[1] : "benchmark-results.json";
+
+        names = new String[maxSize];
+        for (int i = 0; i < maxSize; i++) {names[i] = "Element " + i;}
+
+        for (int n = 1000; n <= maxSize; n *= 10)
+        {
+            measure("ElementList.append", n, Benchmark::append);
+            measure("ElementList.getElement", n, Benchmark::getElement);
+            measure("ElementList.removeElement", n, Benchmark::removeElement);
+            measure("ElementList.removeLast", n, Benchmark::removeLast);
+            measure("ElementList.iterate", n, Benchmark::iterate);
+            measure("UnrolledElementList.append", n, Benchmark::unrolledAppend);
+            measure("UnrolledElementList.removeLast", n, Benchmark::unrolledRemoveLast);
+            measure("UnrolledElementList.iterate", n, Benchmark::unrolledIterate);
+        }
+        for (int students = 1000; students <= Math.min(maxSize, 100_000); students *= 10)
+        {
+            measure("Book.checkOut/checkIn", students, Benchmark::rentals);
+        }
+
+        saveResults(output);
+    }
+
+    /**
+     * Writes the results to the JSON file, reporting any failure
+     * @param output The path of the JSON file
+     */
+    private static void saveResults(String output)
+    {
+        try
+        {
+            writeJson(output);
+            System.out.printf("Results written to %s\n", output);
+        }
+        catch (IOException e)
+        {
+            System.out.println("The results could not be written. " + e.getMessage());
+        }
+    }
+
+    /**
+     * The FIFO operations shared by the queues being compared
+     */
+    private interface Queue
+    {
+        /**
+         * Appends an element at the tail
+         * @param value The element to append
+         */
+        void append(Integer value);
+
+        /**
+         * Removes the element at the head
+         * @return The removed element or null
+         */
+        Integer removeFirst();
+    }
+
+    /**
+     * Runs the waitlist churn of every thread count against both queues. Every thread appends
+     * its own ids and removes whatever is at the head, then the queue is drained and each id
+     * is checked to have been removed exactly once. The thread count is reported as the size.
+     * @param maxThreads The largest number of threads
+     * @param output The path of the JSON file
+     */
+    private static void benchmarkQueues(int maxThreads, String output)
+    {
+        for (int threads = 1; threads <= maxThreads; threads *= 2)
+        {
+            int count = threads;
+            measure("ConcurrentElementList", threads, n -> churn(count, lockFreeQueue()));
+            measure("synchronized ElementList", threads, n -> churn(count, synchronizedQueue()));
+        }
+        saveResults(output);
+    }
+
+    /**
+     * Returns a ConcurrentElementList viewed as a Queue
+     * @return The queue
+     */
+    private static Queue lockFreeQueue()
+    {
+        ConcurrentElementList<Integer> list = new ConcurrentElementList<>();
+        return new Queue()
+        {
+            public void append(Integer value) {list.append(value.toString(), value);}
+            public Integer removeFirst() {return list.removeFirst();}
+        };
+    }
+
+    /**
+     * Returns an ElementList guarded by its monitor viewed as a Queue
+     * @return The queue
+     */
+    private static Queue synchronizedQueue()
+    {
+        ElementList<Integer> list = new ElementList<>();
+        return new Queue()
+        {
+            public void append(Integer value) {synchronized (list) {list.append(value.toString(), value);}}
+            public Integer removeFirst() {synchronized (list) {return list.removeFirst();}}
+        };
+    }
+
+    /**
+     * Has every thread append and remove QUEUE_OPERATIONS elements, then verifies that
+     * no element was lost or removed twice
+     * @param threads The number of threads
+     * @param queue The queue under test
+     * @return The number of operations performed
+     */
+    private static long churn(int threads, Queue queue)
+    {
+        int total = threads * QUEUE_OPERATIONS;
+        AtomicIntegerArray removed = new AtomicIntegerArray(total);
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++)
+        {
+            int first = t * QUEUE_OPERATIONS;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < QUEUE_OPERATIONS; i++)
+                {
+                    queue.append(first + i);
+                    Integer value = queue.removeFirst();
+                    if (value != null) {removed.incrementAndGet(value);}
+                }
+            });
+        }
+        for (Thread worker : workers) {worker.start();}
+        try
+        {
+            for (Thread worker : workers) {worker.join();}
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The benchmark was interrupted.", e);
+        }
+
+        for (Integer value = queue.removeFirst(); value != null; value = queue.removeFirst())
+        {
+            removed.incrementAndGet(value);
+        }
+        for (int i = 0; i < total; i++)
+        {
+            if (removed.get(i) != 1)
+            {
+                throw new IllegalStateException("Element " + i + " was removed " + removed.get(i) + " times.");
+            }
+        }
+        return 2L * total;
+    }
+
+    /**
+     * The name keyed operations shared by the sorted containers being compared
+     */
+    private interface NameMap
+    {
+        /**
+         * Adds an element
+         * @param name The name of the element
+         * @param value The element
+         */
+        void put(String name, Integer value);
+
+        /**
+         * Returns the element with a name
+         * @param name The name of the element
+         * @return The element or null
+         */
+        Integer get(String name);
+
+        /**
+         * Removes the element with a name
+         * @param name The name of the element
+         * @return The removed element or null
+         */
+        Integer remove(String name);
+
+        /**
+         * Returns the elements in name order
+         * @return The elements in name order
+         */
+        Iterable<Integer> inOrder();
+    }
+
+    /**
+     * Checks SortedElementList against a TreeMap, then runs the sorted benchmarks for every size
+     * @param maxSize The largest number of elements
+     * @param output The path of the JSON file
+     */
+    private static void benchmarkSorted(int maxSize, String output)
+    {
+        names = new String[maxSize];
+        for (int i = 0; i < maxSize; i++) {names[i] = "Element " + i;}
+        verifySorted(Math.min(maxSize, SORTED_CHECK_SIZE));
+
+        for (int n = 1000; n <= maxSize; n *= 10)
+        {
+            measure("SortedElementList.add", n, size -> sortedPut(size, sortedList()));
+            measure("ElementList.append", n, size -> sortedPut(size, elementList()));
+            measure("TreeMap.put", n, size -> sortedPut(size, treeMap()));
+            measure("SortedElementList.getElement", n, size -> sortedGet(size, sortedList()));
+            measure("ElementList.getElement", n, size -> sortedGet(size, elementList()));
+            measure("TreeMap.get", n, size -> sortedGet(size, treeMap()));
+            measure("SortedElementList.removeElement", n, size -> sortedRemove(size, sortedList()));
+            measure("ElementList.removeElement", n, size -> sortedRemove(size, elementList()));
+            measure("TreeMap.remove", n, size -> sortedRemove(size, treeMap()));
+            measure("SortedElementList.inOrder", n, size -> sortedIterate(size, sortedList()));
+            measure("ElementList.sort+iterate", n, size -> sortedIterate(size, elementList()));
+            measure("TreeMap.inOrder", n, size -> sortedIterate(size, treeMap()));
+        }
+        saveResults(output);
+    }
+
+    /**
+     * Returns a SortedElementList viewed as a NameMap
+     * @return The map
+     */
+    private static NameMap sortedList()
+    {
+        SortedElementList<Integer> list = new SortedElementList<>();
+        return new NameMap()
+        {
+            public void put(String name, Integer value) {list.add(name, value);}
+            public Integer get(String name) {return list.getElement(name);}
+            public Integer remove(String name) {return list.removeElement(name);}
+            public Iterable<Integer> inOrder() {return list;}
+        };
+    }
+
+    /**
+     * Returns an ElementList viewed as a NameMap. It is kept in insertion order, so iterating
+     * in name order sorts a copy first.
+     * @return The map
+     */
+    private static NameMap elementList()
+    {
+        ElementList<Integer> list = new ElementList<>();
+        return new NameMap()
+        {
+            public void put(String name, Integer value) {list.append(name, value);}
+            public Integer get(String name) {return list.getElement(name);}
+            public Integer remove(String name) {return list.removeElement(name);}
+            public Iterable<Integer> inOrder()
+            {
+                ArrayList<Integer> values = new ArrayList<>(list.snapshot());
+                values.sort((first, second) -> names[first].compareToIgnoreCase(names[second]));
+                return values;
+            }
+        };
+    }
+
+    /**
+     * Returns a case insensitive TreeMap viewed as a NameMap
+     * @return The map
+     */
+    private static NameMap treeMap()
+    {
+        TreeMap<String, Integer> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        return new NameMap()
+        {
+            public void put(String name, Integer value) {map.put(name, value);}
+            public Integer get(String name) {return map.get(name);}
+            public Integer remove(String name) {return map.remove(name);}
+            public Iterable<Integer> inOrder() {return map.values();}
+        };
+    }
+
+    /**
+     * Returns the first n element indexes in a random order, so sorted containers are not
+     * filled in name order
+     * @param n The number of indexes
+     * @param seed The seed of the shuffle
+     * @return The shuffled indexes
+     */
+    private static int[] shuffled(int n, long seed)
+    {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {order[i] = i;}
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = n - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1), swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+
+    /**
+     * Fills a map with n elements in a random order
+     * @param n The number of elements
+     * @param map The map to fill
+     * @return The map
+     */
+    private static NameMap filledMap(int n, NameMap map)
+    {
+        for (int index : shuffled(n, SEED)) {map.put(names[index], index);}
+        return map;
+    }
+
+    /**
+     * Adds n elements in a random order to an empty map
+     * @param n The number of elements
+     * @param map The map under test
+     * @return The number of operations performed
+     */
+    private static long sortedPut(int n, NameMap map)
+    {
+        int[] order = shuffled(n, SEED);
+        long start = System.nanoTime();
+        for (int index : order) {map.put(names[index], index);}
+        sink += (map.get(names[0]) != null) ? 1 : 0;
+        return correctForSetup(start, n);
+    }
+
+    /**
+     * Looks up n random names in a map of n elements
+     * @param n The number of elements
+     * @param map The map under test
+     * @return The number of operations performed
+     */
+    private static long sortedGet(int n, NameMap map)
+    {
+        filledMap(n, map);
+        Random random = new Random(SEED);
+        long start = System.nanoTime(), total = 0;
+        for (int i = 0; i < n; i++) {total += map.get(names[random.nextInt(n)]);}
+        sink += total;
+        return correctForSetup(start, n);
+    }
+
+    /**
+     * Removes n random names from a map of n elements, some of which are already gone
+     * @param n The number of elements
+     * @param map The map under test
+     * @return The number of operations performed
+     */
+    private static long sortedRemove(int n, NameMap map)
+    {
+        filledMap(n, map);
+        Random random = new Random(SEED);
+        long start = System.nanoTime(), total = 0;
+        for (int i = 0; i < n; i++)
+        {
+            Integer removed = map.remove(names[random.nextInt(n)]);
+            if (removed != null) {total += removed;}
+        }
+        sink += total;
+        return correctForSetup(start, n);
+    }
+
+    /**
+     * Visits the elements of a map of n elements in name order
+     * @param n The number of elements
+     * @param map The map under test
+     * @return The number of operations performed
+     */
+    private static long sortedIterate(int n, NameMap map)
+    {
+        filledMap(n, map);
+        long start = System.nanoTime(), total = 0;
+        for (Integer value : map.inOrder()) {total += value;}
+        sink += total;
+        return correctForSetup(start, n);
+    }
+
+    /**
+     * Applies the same random adds, lookups and removals to a SortedElementList and a TreeMap and
+     * checks that they agree on every result and on the order of their elements
+     * @param n The number of distinct names used
+     */
+    private static void verifySorted(int n)
+    {
+        NameMap list = sortedList(), reference = treeMap();
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < 20 * n; i++)
+        {
+            int index = random.nextInt(n);
+            String name = (random.nextBoolean()) ? names[index] : names[index].toUpperCase(Locale.ROOT);
+            int kind = random.nextInt(3);
+            if (kind == 0)
+            {
+                //The TreeMap replaces an equal name, so only names that are absent are added
+                if (reference.get(name) == null)
+                {
+                    reference.put(name, index);
+                    list.put(name, index);
+                }
+                continue;
+            }
+
+            Integer expected = (kind == 1) ? reference.get(name) : reference.remove(name);
+            Integer actual = (kind == 1) ? list.get(name) : list.remove(name);
+            if (!Objects.equals(expected, actual))
+            {
+                throw new IllegalStateException("SortedElementList returned " + actual + " for " + name + " instead of " + expected + ".");
+            }
+        }
+
+        Iterator<Integer> expected = reference.inOrder().iterator();
+        for (Integer actual : list.inOrder())
+        {
+            if (!expected.hasNext() || !expected.next().equals(actual))
+            {
+                throw new IllegalStateException("SortedElementList is out of order at " + actual + ".");
+            }
+        }
+        if (expected.hasNext()) {throw new IllegalStateException("SortedElementList is missing elements.");}
+    }
+
+    /**
+     * Runs the sharded rental workload for every shard count. The shard count is reported as the size.
+     * @param maxShards The largest number of shards
+     * @param output The path of the JSON file
+     */
+    private static void benchmarkShards(int maxShards, String output)
+    {
+        names = new String[SHARD_BOOKS];
+        for (int i = 0; i < SHARD_BOOKS; i++) {names[i] = "Element " + i;}
+
+        for (int shards = 1; shards <= maxShards; shards *= 2)
+        {
+            measure("ShardedLibrary", shards, Benchmark::shardedRentals);
+        }
+        saveResults(output);
+    }
+
+    /**
+     * Has one client thread per shard send rents, returns and the odd return of every book of
+     * a student, then waits for the shards to process them and checks the copy counts
+     * @param shards The number of shards
+     * @return The number of commands processed
+     */
+    private static long shardedRentals(int shards)
+    {
+        BookCatalog catalog = new BookCatalog();
+        ArrayList<Book> books = new ArrayList<>(SHARD_BOOKS);
+        int[] copies = new int[SHARD_BOOKS];
+        Student[] population = new Student[SHARD_STUDENTS];
+        Random random = new Random(SEED);
+
+        for (int i = 0; i < SHARD_BOOKS; i++)
+        {
+            Book book = new Book(catalog);
+            book.setTitle(names[i]);
+            book.setSecondAuthor("");
+            copies[i] = 1 + random.nextInt(3);
+            book.setNumberOfCopies(copies[i]);
+            books.add(book);
+        }
+        for (int i = 0; i < SHARD_STUDENTS; i++)
+        {
+            population[i] = new Student();
+            population[i].setName("Student " + i);
+        }
+        ShardedLibrary library = new ShardedLibrary(shards, 1024, books);
+
+        Thread[] clients = new Thread[shards];
+        int perClient = SHARD_OPERATIONS / shards;
+        for (int t = 0; t < shards; t++)
+        {
+            SplittableRandom clientRandom = new SplittableRandom(SEED + t);
+            clients[t] = new Thread(() -> {
+                for (int i = 0; i < perClient; i++)
+                {
+                    Student student = population[clientRandom.nextInt(SHARD_STUDENTS)];
+                    String title = names[clientRandom.nextInt(SHARD_BOOKS)];
+                    int kind = clientRandom.nextInt(1000);
+                    if (kind == 0) {library.returnAll(student);}
+                    else if (kind < 500) {library.rent(student, title);}
+                    else {library.returnBook(student, title);}
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread client : clients) {client.start();}
+        try
+        {
+            for (Thread client : clients) {client.join();}
+            library.sync().join();
+            library.shutdown();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The benchmark was interrupted.", e);
+        }
+
+        for (int i = 0; i < SHARD_BOOKS; i++)
+        {
+            int left = books.get(i).getNumberOfCopies();
+            if (left < 0 || left > copies[i])
+            {
+                throw new IllegalStateException(names[i] + " has " + left + " of " + copies[i] + " copies.");
+            }
+        }
+        correctForSetup(start, (long)perClient * shards);
+        return (long)perClient * shards;
+    }
+
+    /**
+     * Measures the allocation of steady churn on waitlist sized lists and on the Book
+     * checkout/check-in path. The list stays the same size throughout, so once warmed up a
+     * pooled list should allocate nothing.
+     * @param output The path of the JSON file
+     */
+    private static void benchmarkAllocation(String output)
+    {
+        names = new String[10_000];
+        for (int i = 0; i < names.length; i++) {names[i] = "Element " + i;}
+
+        for (int n = 10; n <= 10_000; n *= 10)
+        {
+            int size = n;
+            measureAllocation("ElementList.append/removeFirst", n, ignored -> queueChurn(size, 0));
+            measureAllocation("ElementList.append/removeFirst(pooled)", n, ignored -> queueChurn(size, CHURN_POOL));
+            measureAllocation("ElementList.removeElement/append", n, ignored -> nameChurn(size, 0));
+            measureAllocation("ElementList.removeElement/append(pooled)", n, ignored -> nameChurn(size, CHURN_POOL));
+        }
+        measureAllocation("Book.checkOut/checkIn", 1000, Benchmark::waitlistChurn);
+        saveResults(output);
+    }
+
+    /**
+     * Runs the warmup and measured rounds of an allocation benchmark and records the result
+     * @param name The name of the benchmark
+     * @param n The size of the list
+     * @param round The benchmark, which sets loopBytes
+     */
+    private static void measureAllocation(String name, int n, Round round)
+    {
+        double[] samples = new double[MEASURED_ROUNDS];
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {round.run(n);}
+        for (int i = 0; i < MEASURED_ROUNDS; i++)
+        {
+            long operations = round.run(n);
+            samples[i] = (double)loopBytes / operations;
+        }
+
+        Result result = new Result(name, n, samples, "bytes/op");
+        results.add(result);
+        System.out.printf("%-42s n=%-8d %10.3f bytes/op (+/- %.3f)\n", name, n, result.meanNanosPerOp, result.stdDevNanosPerOp);
+    }
+
+    /**
+     * Records the bytes allocated by the benchmark thread since the loop started
+     * @param loopStartBytes The allocation counter when the loop started
+     * @param operations The number of operations in the loop
+     * @return The number of operations in the loop
+     */
+    private static long allocatedSince(long loopStartBytes, long operations)
+    {
+        loopBytes = THREADS.getCurrentThreadAllocatedBytes() - loopStartBytes;
+        return operations;
+    }
+
+    /**
+     * Appends to the tail and removes from the head of a list of n elements, like a waitlist
+     * @param n The size of the list
+     * @param pool The node pool capacity of the list
+     * @return The number of operations performed
+     */
+    private static long queueChurn(int n, int pool)
+    {
+        ElementList<String> list = new ElementList<>(pool);
+        for (int i = 0; i < n; i++) {list.append(names[i], names[i]);}
+
+        long start = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CHURN_OPERATIONS; i++)
+        {
+            String name = list.removeFirst();
+            list.append(name, name);
+        }
+        sink += list.getElementCount();
+        return allocatedSince(start, 2L * CHURN_OPERATIONS);
+    }
+
+    /**
+     * Removes random names from a list of n elements by name and appends them again
+     * @param n The size of the list
+     * @param pool The node pool capacity of the list
+     * @return The number of operations performed
+     */
+    private static long nameChurn(int n, int pool)
+    {
+        ElementList<String> list = new ElementList<>(pool);
+        for (int i = 0; i < n; i++) {list.append(names[i], names[i]);}
+        SplittableRandom random = new SplittableRandom(SEED);
+
+        long start = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CHURN_OPERATIONS; i++)
+        {
+            String name = list.removeElement(names[random.nextInt(n)]);
+            list.append(name, name);
+        }
+        sink += list.getElementCount();
+        return allocatedSince(start, 2L * CHURN_OPERATIONS);
+    }
+
+    /**
+     * Has students check out and return single copy books, so every return promotes the head
+     * of a waitlist and every checkout of a rented book joins one
+     * @param books The number of books
+     * @return The number of checkouts and check-ins performed
+     */
+    private static long waitlistChurn(int books)
+    {
+        BookCatalog catalog = new BookCatalog();
+        Book[] catalogBooks = new Book[books];
+        Student[] population = new Student[books * 4];
+        for (int i = 0; i < books; i++)
+        {
+            catalogBooks[i] = new Book(catalog);
+            catalogBooks[i].setTitle(names[i]);
+            catalogBooks[i].setSecondAuthor("");
+            catalogBooks[i].setNumberOfCopies(1);
+        }
+        for (int i = 0; i < population.length; i++)
+        {
+            population[i] = new Student();
+            population[i].setName("Student " + i);
+        }
+
+        //Every book gets a renter and three waiting students, then each round returns the
+        //renter's copy and sends them back to the end of the waitlist
+        for (int i = 0; i < population.length; i++) {catalogBooks[i % books].checkOut(population[i]);}
+        long start = THREADS.getCurrentThreadAllocatedBytes();
+        int[] renter = new int[books];
+        for (int i = 0; i < books; i++) {renter[i] = i;}
+        for (int i = 0; i < CHURN_OPERATIONS; i++)
+        {
+            int book = i % books;
+            Student returning = population[renter[book]];
+            catalogBooks[book].checkIn(returning);
+            catalogBooks[book].checkOut(returning);
+            renter[book] = (renter[book] + books) % population.length;
+        }
+        long operations = allocatedSince(start, 2L * CHURN_OPERATIONS);
+
+        for (int i = 0; i < population.length; i++) {catalogBooks[i % books].checkIn(population[i]);}
+        return operations;
+    }
+
+    /**
+     * Runs the warmup and measured rounds of a benchmark and records the result
+     * @param name The name of the benchmark
+     * @param n The size of the list
+     * @param round The benchmark
+     */
+    private static void measure(String name, int n, Round round)
+    {
+        double[] samples = new double[MEASURED_ROUNDS];
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {round.run(n);}
+        for (int i = 0; i < MEASURED_ROUNDS; i++)
+        {
+            setupNanos = 0;
+            roundStart = System.nanoTime();
+            long operations = round.run(n);
+            samples[i] = (double)(System.nanoTime() - roundStart - setupNanos) / operations;
+        }
+
+        Result result = new Result(name, n, samples);
+        results.add(result);
+        System.out.printf("%-32s n=%-10d %12.2f ns/op (+/- %.2f)\n", name, n, result.meanNanosPerOp, result.stdDevNanosPerOp);
+    }
+
+    /**
+     * Builds a list of n elements outside of the timed region
+     * @param n The size of the list
+     * @return A list of n elements
+     */
+    private static ElementList<Integer> filledList(int n)
+    {
+        ElementList<Integer> list = new ElementList<>();
+        for (int i = 0; i < n; i++) {list.append(names[i], i);}
+        return list;
+    }
+
+    /**
+     * Appends n elements to an empty list
+     * @param n The size of the list
+     * @return The number of operations performed
+     */
+    private static long append(int n)
+    {
+        ElementList<Integer> list = new ElementList<>();
+        for (int i = 0; i < n; i++) {list.append(names[i], i);}
+        sink += list.getElementCount();
+        return n;
+    }
+
+    /**
+     * Looks up n random names in a list of n elements
+     * @param n The size of the list
+     * @return The number of operations performed
+     */
+    private static long getElement(int n)
+    {
+        ElementList<Integer> list = filledList(n);
+        Random random = new Random(SEED);
+        long start = System.nanoTime(), total = 0;
+        for (int i = 0; i < n; i++) {total += list.getElement(names[random.nextInt(n)]);}
+        sink += total;
+        return correctForSetup(start, n);
+    }
+
+    /**
+     * Removes n random names from a list of n elements, some of which are already gone
+     * @param n The size of the list
+     * @return The number of operations performed
+     */
+    private static long removeElement(int n)
+    {
+        ElementList<Integer> list = filledList(n);
+        Random random = new Random(SEED);
+        long start = System.nanoTime(), total = 0;
+        for (int i = 0; i < n; i++)
+        {
+            Integer removed = list.removeElement(names[random.nextInt(n)]);
+            if (removed != null) {total += removed;}
+        }
+        sink += total;
+        return correctForSetup(start, n);
+    }
+
+    /**
+     * Drains a list of n elements from the tail
+     * @param n The size of the list
+     * @return The number of operations performed
+     */
+    private static long removeLast(int n)
+    {
+        ElementList<Integer> list = filledList(n);
+        long start = System.nanoTime(), total = 0;
+        while (!list.isEmpty()) {total += list.removeLast();}
+        sink += total;
+        return correctForSetup(start, n);
+    }
+
+    /**
+     * Iterates over a list of n elements ten times
+     * @param n The size of the list
+     * @return The number of operations performed
+     */
+    private static long iterate(int n)
+    {
+        ElementList<Integer> list = filledList(n);
+        long start = System.nanoTime(), total = 0;
+        for (int rounds = 0; rounds < 10; rounds++)
+        {
+            for (Integer value : list) {total += value;}
+        }
+        sink += total;
+        return correctForSetup(start, 10L * n);
+    }
+
+    /**
+     * Builds an UnrolledElementList of n elements outside of the timed region
+     * @param n The size of the list
+     * @return A list of n elements
+     */
+    private static UnrolledElementList<Integer> filledUnrolledList(int n)
+    {
+        UnrolledElementList<Integer> list = new UnrolledElementList<>();
+        for (int i = 0; i < n; i++) {list.append(names[i], i);}
+        return list;
+    }
+
+    /**
+     * Appends n elements to an empty UnrolledElementList
+     * @param n The size of the list
+     * @return The number of operations performed
+     */
+    private static long unrolledAppend(int n)
+    {
+        UnrolledElementList<Integer> list = new UnrolledElementList<>();
+        for (int i = 0; i < n; i++) {list.append(names[i], i);}
+        sink += list.getElementCount();
+        return n;
+    }
+
+    /**
+     * Drains an UnrolledElementList of n elements from the tail
+     * @param n The size of the list
+     * @return The number of operations performed
+     */
+    private static long unrolledRemoveLast(int n)
+    {
+        UnrolledElementList<Integer> list = filledUnrolledList(n);
+        long start = System.nanoTime(), total = 0;
+        while (!list.isEmpty()) {total += list.removeLast();}
+        sink += total;
+        return correctForSetup(start, n);
+    }
+
+    /**
+     * Iterates over an UnrolledElementList of n elements ten times
+     * @param n The size of the list
+     * @return The number of operations performed
+     */
+    private static long unrolledIterate(int n)
+    {
+        UnrolledElementList<Integer> list = filledUnrolledList(n);
+        long start = System.nanoTime(), total = 0;
+        for (int rounds = 0; rounds < 10; rounds++)
+        {
+            for (Integer value : list) {total += value;}
+        }
+        sink += total;
+        return correctForSetup(start, 10L * n);
+    }
+
+    /**
+     * Rents and returns books among a population of students. A tenth of the catalog gets
+     * most of the requests and every book has only a few copies, so popular titles build up
+     * waitlists and most returns promote a waiting student.
+     * @param students The number of students
+     * @return The number of checkouts and check-ins performed
+     */
+    private static long rentals(int students)
+    {
+        int bookCount = Math.max(10, students / 10), operations = students * 10;
+        Random random = new Random(SEED);
+        BookCatalog catalog = new BookCatalog();
+        Book[] books = new Book[bookCount];
+        Student[] population = new Student[students];
+
+        for (int i = 0; i < bookCount; i++)
+        {
+            books[i] = new Book(catalog);
+            books[i].setTitle(names[i]);
+            books[i].setSecondAuthor("");
+            books[i].setNumberOfCopies(1 + random.nextInt(3));
+        }
+        for (int i = 0; i < students; i++)
+        {
+            population[i] = new Student();
+            population[i].setName("Student " + i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++)
+        {
+            int title = (random.nextInt(10) < 8) ? random.nextInt(bookCount / 10) : random.nextInt(bookCount);
+            Student student = population[random.nextInt(students)];
+            if (random.nextBoolean()) {books[title].checkOut(student);}
+            else {books[title].checkIn(student);}
+        }
+        sink += books[0].getNumberOfCopies();
+        return correctForSetup(start, operations);
+    }
+
+    /**
+     * The benchmarks that need a populated list build it inside the round. This shifts the
+     * start of the measured round past the setup so only the benchmarked loop is counted.
+     * @param loopStart The time the benchmarked loop started
+     * @param operations The number of operations in the loop
+     * @return The number of operations in the loop
+     */
+    private static long correctForSetup(long loopStart, long operations)
+    {
+        setupNanos = loopStart - roundStart;
+        return operations;
+    }
+
+    /**
+     * Writes every result to a JSON file
+     * @param path The path of the file
+     * @throws IOException If the file could not be written
+     */
+    private static void writeJson(String path) throws IOException
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"results\": [\n");
+        for (int i = 0; i < results.size(); i++)
+        {
+            json.append("    ").append(results.get(i).toJson()).append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        json.append("  ]\n}\n");
+        Files.write(Paths.get(path), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
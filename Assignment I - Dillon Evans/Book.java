@@ -1,244 +1,419 @@
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This class is used to create Book objects
  * @author Dillon Evans
  */
 public class Book 
 {
-    //Instance Variables
-    private String title;
-    private String ISBN;
-    private String DOI; 
-    private String subjectCategory;
-    private String expectedPublicationDate;
-    private String firstAuthor;
-    private String secondAuthor;
-    private String firstAuthorAffiliation;
-    private String secondAuthorAffiliation;
-    private int numberOfCopies;
-
-    //Lists to maintain
-    private ElementList<Student> waitlist = new ElementList<>();
-    private ElementList<Student> renterList = new ElementList<>();
+    //The fields of the book are stored in a row of the catalog
+    private final BookCatalog catalog;
+    private final int row;
+
+    //The id of the title in IdRegistry.titles()
+    private int titleId = -1;
+
+    //Lists to maintain, created when the first student waits for or rents the book, since most
+    //books are never rented. The waitlist reuses the nodes of students that left it.
+    private static final int WAITLIST_NODE_POOL = 8;
+    private ElementList<Student> waitlist;
+
+    //The students renting the book in the RentalRelation, guarded by the book's monitor
+    RentalRelation.Renters renters;
+
+    //The id of the book in the RentalRelation
+    final int bookId = RentalRelation.nextBookId();
+
+    //Receives every rental event while the book's monitor is held
+    private static volatile RentalJournal journal;
+
+    //Receives every checkout to keep the co-rental recommendations current
+    private static volatile CoRentalIndex coRentals;
+
+    //Every checkout is due this long after it is made, 14 days unless -Dlibrary.loanDays is set
+    private static volatile Duration loanPeriod = Duration.ofDays(Long.getLong("library.loanDays", 14));
+    private static volatile Clock clock = Clock.systemUTC();
+
+    /**
+     * Sets the journal that records checkouts, check-ins and waitlist additions
+     * @param rentalJournal The journal to log to, or null to stop logging
+     */
+    public static void setJournal(RentalJournal rentalJournal) {journal = rentalJournal;}
+
+    /**
+     * Sets the co-rental index that records checkouts
+     * @param index The index to update, or null to stop updating
+     */
+    public static void setCoRentalIndex(CoRentalIndex index) {coRentals = index;}
+
+    /**
+     * Sets how long a checkout lasts before it is overdue
+     * @param period The loan period
+     */
+    public static void setLoanPeriod(Duration period) {loanPeriod = period;}
+
+    /**
+     * Sets the clock that due dates are taken from
+     * @param loanClock The clock
+     */
+    public static void setClock(Clock loanClock) {clock = loanClock;}
+
+    /**
+     * Returns the current time of the clock that due dates are taken from
+     * @return The current time in milliseconds since the epoch
+     */
+    public static long now() {return clock.millis();}
+
+    /**
+     * Returns the due date of a book checked out now
+     * @return The due date in milliseconds since the epoch
+     */
+    public static long nextDueDate() {return clock.millis() + loanPeriod.toMillis();}
+
+    /**
+     * Creates a new Book stored in the default catalog
+     */
+    public Book() {this(BookCatalog.getDefault());}
+
+    /**
+     * Creates a new Book stored in the specified catalog
+     * @param catalog The catalog that stores the fields of the book
+     */
+    public Book(BookCatalog catalog)
+    {
+        this.catalog = catalog;
+        this.row = catalog.addRow();
+    }
 
     /**
      * Sets the title of the book
      * @param title The title of the book
      */
-    public void setTitle(String title) {this.title = title;}
+    public void setTitle(String title)
+    {
+        catalog.setTitle(row, title);
+        titleId = IdRegistry.titles().intern(title);
+    }
     
     /**
      * Sets the DOI of the book
      * @param dOI The DOI of the book
      */
-    public void setDOI(String dOI) {DOI = dOI;}
+    public void setDOI(String dOI) {catalog.setDOI(row, dOI);}
 
     /**
      * Sets the expected publication date of the book
      * @param expectedPublicationDate The expected publication date of the book
      */
-    public void setExpectedPublicationDate(String expectedPublicationDate) {this.expectedPublicationDate = expectedPublicationDate;}
+    public void setExpectedPublicationDate(String expectedPublicationDate) {catalog.setExpectedPublicationDate(row, expectedPublicationDate);}
 
     /**
      * Sets the first author of the book
      * @param firstAuthor The first author of the book
      */
-    public void setFirstAuthor(String firstAuthor) {this.firstAuthor = firstAuthor;}
+    public void setFirstAuthor(String firstAuthor) {catalog.setFirstAuthor(row, firstAuthor);}
 
     /**
      * Sets the affiliation of the first author
      * @param firstAuthorAffiliation The affiliation of the first author
      */
-    public void setFirstAuthorAffiliation(String firstAuthorAffiliation) {this.firstAuthorAffiliation = firstAuthorAffiliation;}
+    public void setFirstAuthorAffiliation(String firstAuthorAffiliation) {catalog.setFirstAuthorAffiliation(row, firstAuthorAffiliation);}
 
     /**
      * Sets the ISBN of the book
      * @param iSBN The ISBN of the book
      */
-    public void setISBN(String iSBN) {ISBN = iSBN;}
+    public void setISBN(String iSBN) {catalog.setISBN(row, iSBN);}
 
     /**
      * Sets the number of copies of the book available
      * @param numberOfCopies The number of copies of the book 
      */
-    public void setNumberOfCopies(int numberOfCopies) {this.numberOfCopies = numberOfCopies;}
+    public synchronized void setNumberOfCopies(int numberOfCopies) {catalog.setNumberOfCopies(row, numberOfCopies);}
 
     /**
      * Sets the second author of the book
      * @param secondAuthor The second author of the book
      */
-    public void setSecondAuthor(String secondAuthor) {this.secondAuthor = secondAuthor;}
+    public void setSecondAuthor(String secondAuthor) {catalog.setSecondAuthor(row, secondAuthor);}
 
     /**
      * Sets the affiliation of the second author
      * @param secondAuthorAffiliation The affiliation of the second author
      */
-    public void setSecondAuthorAffiliation(String secondAuthorAffiliation) {this.secondAuthorAffiliation = secondAuthorAffiliation;}
+    public void setSecondAuthorAffiliation(String secondAuthorAffiliation) {catalog.setSecondAuthorAffiliation(row, secondAuthorAffiliation);}
 
     /**
      * Sets the subject of the book
      * @param subjectCategory The subject of the book
      */
-    public void setSubjectCategory(String subjectCategory) {this.subjectCategory = subjectCategory;}
+    public void setSubjectCategory(String subjectCategory) {catalog.setSubjectCategory(row, subjectCategory);}
 
     /**
      * Returns the DOI of the book
      * @return The DOI of the book
      */
-    public String getDOI() {return DOI;}
+    public String getDOI() {return catalog.getDOI(row);}
 
      /**
       * Returns the expected publication date of the book
       * @return The DOI of the book
       */
-    public String getExpectedPublicationDate() {return expectedPublicationDate;}
+    public String getExpectedPublicationDate() {return catalog.getExpectedPublicationDate(row);}
 
     /**
      * Returns the first author of the book
      * @return The first author of the book
      */
-    public String getFirstAuthor() {return firstAuthor;}
+    public String getFirstAuthor() {return catalog.getFirstAuthor(row);}
 
     /**
      * Returns the affiliation of the first author
      * @return The affiliation of the first author
      */
-    public String getFirstAuthorAffiliation() {return firstAuthorAffiliation;}
+    public String getFirstAuthorAffiliation() {return catalog.getFirstAuthorAffiliation(row);}
 
     /**
      * Returns the ISBN of the book
      * @return The ISBN of the book
      */
-    public String getISBN() {return ISBN;}
+    public String getISBN() {return catalog.getISBN(row);}
 
     /**
      * Returns the number of copies remaining
      * @return The number of copies remaining
      */
-    public int getNumberOfCopies() {return numberOfCopies;}
+    public synchronized int getNumberOfCopies() {return catalog.getNumberOfCopies(row);}
 
     /**
      * Returns the second author
      * @return The second author
      */
-    public String getSecondAuthor() {return (!secondAuthor.isBlank() ? secondAuthor : "N/A");}
+    public String getSecondAuthor() {return (!hasSecondAuthor() ? "N/A" : catalog.getSecondAuthor(row));}
+
+    /**
+     * Returns true if the book has a second author
+     * @return True if the book has a second author
+     */
+    public boolean hasSecondAuthor() {return !catalog.getSecondAuthor(row).isBlank();}
 
     /**
      * Returns the affiliation of the second author
      * @return The affiliation of the second author
      */
-    public String getSecondAuthorAffiliation() {return secondAuthorAffiliation;}
+    public String getSecondAuthorAffiliation() {return catalog.getSecondAuthorAffiliation(row);}
 
     /**
      * Returns the subject of the book
      * @return The subject of the book
      */
-    public String getSubjectCategory() {return subjectCategory;}
+    public String getSubjectCategory() {return catalog.getSubjectCategory(row);}
 
     /**
      * Returns the title of the book
      * @return The title of the book
      */
-    public String getTitle() {return title;}
+    public String getTitle() {return catalog.getTitle(row);}
+
+    /**
+     * Returns the id of the title, shared by every book with the same title ignoring case
+     * @return The id of the title in IdRegistry.titles(), or -1 if the title is not set
+     */
+    public int getTitleId() {return titleId;}
     
     /**
      * Return true if the number of copies > 0
      * @return True if the number of copies > 0
      */
-    public boolean isAvailable(){return numberOfCopies > 0;}
+    public synchronized boolean isAvailable(){return getNumberOfCopies() > 0;}
 
     /**
      * Adds a student to the waiting list for the book
      * @param student The student to add to the waiting list
      */
-    public void addToWaitlist(Student student) {waitlist.append(student.getName(), student);}
+    public synchronized void addToWaitlist(Student student)
+    {
+        if (waitlist == null) {waitlist = new ElementList<>(WAITLIST_NODE_POOL);}
+        waitlist.append(student.getName(), student);
+        LibraryMetrics.waitlistChanged(this, 1, waitlist.getElementCount());
+    }
 
     /**
-     * Returns the list of students renting the book
-     * @return The list of students renting the book
+     * Returns true if the student is on the waiting list for the book. The waitlist is 
+     * indexed by name, so this does not depend on the length of the waitlist.
+     * @param student The student to search for
+     * @return True if the student is on the waiting list
      */
-    public ElementList<Student> getRenterList() {return renterList;}
+    public synchronized boolean isWaitlisted(Student student) {return waitlist != null && waitlist.contains(student.getName());}
 
-     /**
-     * Returns the list of students waiting to check out the book
-     * @return The list of students waiting to check out the book
+    /**
+     * Removes a student from the waiting list for the book in O(1). The students 
+     * behind them keep their order.
+     * @param student The student leaving the waiting list
+     * @return True if the student was on the waiting list
+     */
+    public synchronized boolean cancelWaitlist(Student student)
+    {
+        if (waitlist == null || waitlist.removeElement(student.getName()) == null) {return false;}
+        LibraryMetrics.waitlistChanged(this, -1, waitlist.getElementCount());
+        log(RentalJournal.CANCEL, student);
+        return true;
+    }
+
+    /**
+     * Returns the students renting the book, in the order they rented it
+     * @return The students renting the book
+     */
+    public List<Student> getRenters() {return RentalRelation.getDefault().rentersOf(this);}
+
+    /**
+     * Returns the number of students renting the book
+     * @return The number of students renting the book
+     */
+    public int getRenterCount() {return RentalRelation.getDefault().renterCount(this);}
+
+    /**
+     * Returns true if the student is renting the book
+     * @param student The student to search for
+     * @return True if the student is renting the book
+     */
+    public boolean isRentedBy(Student student) {return RentalRelation.getDefault().contains(this, student);}
+
+    /**
+     * Returns the date a student's copy of the book is due back
+     * @param student The student renting the book
+     * @return The due date in milliseconds since the epoch, or RentalRelation.NO_DUE_DATE if
+     * the student is not renting the book
+     */
+    public long getDueDate(Student student) {return RentalRelation.getDefault().dueDate(this, student);}
+
+    /**
+     * Records a student as renting the book without changing the number of copies or
+     * journaling it. Used when restoring the rentals from a snapshot.
+     * @param student The student renting the book
+     * @param dueDate The due date in milliseconds since the epoch
+     */
+    public synchronized void addRenter(Student student, long dueDate) {RentalRelation.getDefault().add(this, student, dueDate);}
+
+    /**
+     * Returns the students waiting to check out the book, in the order they joined the waitlist
+     * @return The students waiting to check out the book
+     */
+    public synchronized List<Student> getWaitlist()
+    {
+        if (waitlist == null) {return new ArrayList<>();}
+        ArrayList<Student> waiting = new ArrayList<>(waitlist.getElementCount());
+        for (Student student : waitlist) {waiting.add(student);}
+        return waiting;
+    }
+
+    /**
+     * Returns the number of students on the waitlist
+     * @return The number of students on the waitlist
      */
-    public ElementList<Student> getWaitlist() {return waitlist;}   
+    public synchronized int getWaitlistDepth() {return (waitlist != null) ? waitlist.getElementCount() : 0;}   
 
     /**
-     * Checks the book in to the library 
+     * Checks the book in to the library. Book state is guarded by the book's monitor and a 
+     * student's rental list by the student's monitor. The book is always locked before the 
+     * student, so concurrent checkouts and check-ins cannot deadlock, and promoting the head 
+     * of the waitlist happens atomically with the return.
      * @param student The student returning the book
      */
-    public void checkIn(Student student)
+    public synchronized void checkIn(Student student)
     {
-        student.getRentedBookList().removeElement(this.getTitle());
-        renterList.removeElement(student.getName());
-        numberOfCopies++;
+        long start = LibraryMetrics.CHECK_IN.start();
+        try
+        {
+            synchronized (student)
+            {
+                //A student that is not renting the book has nothing to return
+                if (!RentalRelation.getDefault().remove(this, student)) {return;}
+                setNumberOfCopies(getNumberOfCopies() + 1);
+            }
+            log(RentalJournal.CHECKIN, student);
 
-        //The first person on the wait list automatically checks out the book
-        if (!waitlist.isEmpty())
+            //The first person on the wait list automatically checks out the book
+            if (waitlist != null && !waitlist.isEmpty())
+            {
+                LibraryMetrics.PROMOTIONS.increment();
+                Student next = waitlist.removeFirst();
+                LibraryMetrics.waitlistChanged(this, -1, waitlist.getElementCount());
+                next.rentBook(this);
+            }
+        }
+        finally
         {
-            waitlist.removeFirst().rentBook(this);
+            LibraryMetrics.CHECK_IN.stop(start);
         }
     }
 
     /**
-     * Checks the book out of the library
+     * Checks the book out of the library. The book is locked before the renter, 
+     * the same order used by checkIn.
      * @param renter The student renting the book
      */
-    public void checkOut(Student renter)
+    public synchronized void checkOut(Student renter)
     {
-        if (!renterList.contains(renter.getName()))
+        long start = LibraryMetrics.CHECK_OUT.start();
+        try
+        {
+            if (isRentedBy(renter)) {return;}
+            if (isAvailable())
+            {
+                synchronized (renter)
+                {
+                    RentalRelation.getDefault().add(this, renter, nextDueDate());
+                    renter.setBooksRented(renter.getBooksRented() - 1);
+                    setNumberOfCopies(getNumberOfCopies() - 1);
+                }
+                log(RentalJournal.CHECKOUT, renter);
+                CoRentalIndex index = coRentals;
+                if (index != null) {index.recordCheckOut(this, renter);}
+            }
+            else if (!isWaitlisted(renter))
+            {
+                addToWaitlist(renter);
+                LibraryMetrics.WAITLISTED.increment();
+                log(RentalJournal.WAITLIST, renter);
+            }
+        }
+        finally
         {
-           if (isAvailable())
-           {
-               renter.getRentedBookList().append(this.getTitle(), this);
-               renterList.append(renter.getName(), renter);
-               renter.setBooksRented(renter.getBooksRented() - 1);
-               numberOfCopies--;
-           }
-           else
-           {
-                if (!waitlist.contains(renter.getName()))
-                waitlist.append(renter.getName(), renter);
-           }
+            LibraryMetrics.CHECK_OUT.stop(start);
         }
     }
 
+    /**
+     * Records a rental event in the journal, if one is attached
+     * @param type The type of the event
+     * @param student The student involved in the event
+     */
+    private void log(String type, Student student)
+    {
+        RentalJournal current = journal;
+        if (current != null) {current.log(type, getTitle(), student.getName());}
+    }
+
     /**
      * Returns all the information pertaining to the book when called
      */
     @Override
-    public String toString() 
+    public synchronized String toString() 
     {
-        StringBuilder output = new StringBuilder();
-        output.append(String.format("Title: %s\n", getTitle()));
-        output.append(String.format("First Author: %s, %s\n", getFirstAuthor(), getFirstAuthorAffiliation()));
-        if (!secondAuthor.isBlank()) 
-        {
-            output.append(String.format("Second Author: %10s, %s\n", getSecondAuthor(), getSecondAuthorAffiliation()));
-        }
-        output.append(String.format("Expected Publication Date: %s\n", getExpectedPublicationDate()));
-        output.append(String.format("ISBN: %-30s\nDOI:  %-30s\n", getISBN(),getDOI()));
-        output.append(String.format("Subject: %-30s\nAvailable: %-30s\n", getSubjectCategory(),getNumberOfCopies()));
-        if (!renterList.isEmpty())
-        {
-            output.append("Renter List:\n");
-            for (Student s : renterList)
-            {
-                output.append(s);
-                output.append("\n");
-            }
-        }
-        return output.toString();
+        return ReportWriter.appendText(new StringBuilder(256), this).toString();
     }
 
     /**
      * Prints the list of students waiting to check out the book.
      */
-    public void viewWaitlist()
+    public synchronized void viewWaitlist()
     {
         System.out.println("Waitlist: ");
-        if (!waitlist.isEmpty()) {waitlist.print();}
+        if (waitlist != null && !waitlist.isEmpty()) {waitlist.print();}
         else {System.out.println("Empty.");}
     }
 }
\ No newline at end of file
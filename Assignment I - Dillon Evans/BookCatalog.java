@@ -0,0 +1,265 @@
+import java.util.Arrays;
+
+/**
+ * Columnar storage for the fields of every Book. Each field is kept in a primitive or String
+ * column indexed by the book's row. Fields that repeat heavily across the catalog (subjects,
+ * authors and affiliations) are dictionary encoded through a shared StringPool, and publication
+ * dates of the form "Sep-13" are packed into an int. Columns are allocated in fixed size pages,
+ * so growing the catalog never copies or moves existing rows.
+ *
+ * Rows are never released on their own. A catalog is freed as a whole once none of its books are
+ * reachable, so CatalogLoader gives every load a catalog of its own, and the default catalog only
+ * holds the books created one at a time.
+ * @author Dillon Evans
+ */
+public class BookCatalog
+{
+    private static final int PAGE_BITS = 10, PAGE_SIZE = 1 << PAGE_BITS, PAGE_MASK = PAGE_SIZE - 1;
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    private static final BookCatalog DEFAULT = new BookCatalog();
+
+    /**
+     * The columns of PAGE_SIZE consecutive rows
+     */
+    private static class Page
+    {
+        private String[] titles = new String[PAGE_SIZE];
+        private String[] ISBNs = new String[PAGE_SIZE];
+        private String[] DOIs = new String[PAGE_SIZE];
+        private int[] subjectCategories = new int[PAGE_SIZE];
+        private int[] publicationDates = new int[PAGE_SIZE];
+        private int[] firstAuthors = new int[PAGE_SIZE];
+        private int[] secondAuthors = new int[PAGE_SIZE];
+        private int[] firstAuthorAffiliations = new int[PAGE_SIZE];
+        private int[] secondAuthorAffiliations = new int[PAGE_SIZE];
+        private int[] numberOfCopies = new int[PAGE_SIZE];
+    }
+
+    private StringPool pool = new StringPool();
+    private volatile Page[] pages = new Page[0];
+    private int rowCount = 0;
+
+    /**
+     * Returns the catalog that books created without one are stored in
+     * @return The default catalog
+     */
+    public static BookCatalog getDefault() {return DEFAULT;}
+
+    /**
+     * Allocates a new row with every field unset
+     * @return The index of the new row
+     */
+    public synchronized int addRow()
+    {
+        int row = rowCount++;
+        if ((row >>> PAGE_BITS) == pages.length)
+        {
+            Page[] grown = new Page[pages.length + 1];
+            System.arraycopy(pages, 0, grown, 0, pages.length);
+            Page page = new Page();
+            Arrays.fill(page.subjectCategories, -1);
+            Arrays.fill(page.publicationDates, Integer.MIN_VALUE);
+            Arrays.fill(page.firstAuthors, -1);
+            Arrays.fill(page.secondAuthors, -1);
+            Arrays.fill(page.firstAuthorAffiliations, -1);
+            Arrays.fill(page.secondAuthorAffiliations, -1);
+            grown[pages.length] = page;
+            pages = grown;
+        }
+        return row;
+    }
+
+    /**
+     * Returns the number of rows in the catalog
+     * @return The number of rows in the catalog
+     */
+    public synchronized int getRowCount() {return rowCount;}
+
+    /**
+     * Returns the number of distinct repeated field values stored in the catalog
+     * @return The number of distinct dictionary encoded values
+     */
+    public int getDistinctValueCount() {return pool.size();}
+
+    /**
+     * Returns the page that holds the specified row
+     * @param row The row
+     * @return The page that holds the row
+     */
+    private Page page(int row) {return pages[row >>> PAGE_BITS];}
+
+    /**
+     * Returns the title of the row
+     * @param row The row
+     * @return The title of the row
+     */
+    public String getTitle(int row) {return page(row).titles[row & PAGE_MASK];}
+
+    /**
+     * Sets the title of the row
+     * @param row The row
+     * @param title The title of the row
+     */
+    public void setTitle(int row, String title) {page(row).titles[row & PAGE_MASK] = title;}
+
+    /**
+     * Returns the ISBN of the row
+     * @param row The row
+     * @return The ISBN of the row
+     */
+    public String getISBN(int row) {return page(row).ISBNs[row & PAGE_MASK];}
+
+    /**
+     * Sets the ISBN of the row
+     * @param row The row
+     * @param ISBN The ISBN of the row
+     */
+    public void setISBN(int row, String ISBN) {page(row).ISBNs[row & PAGE_MASK] = ISBN;}
+
+    /**
+     * Returns the DOI of the row
+     * @param row The row
+     * @return The DOI of the row
+     */
+    public String getDOI(int row) {return page(row).DOIs[row & PAGE_MASK];}
+
+    /**
+     * Sets the DOI of the row
+     * @param row The row
+     * @param DOI The DOI of the row
+     */
+    public void setDOI(int row, String DOI) {page(row).DOIs[row & PAGE_MASK] = DOI;}
+
+    /**
+     * Returns the subject of the row
+     * @param row The row
+     * @return The subject of the row
+     */
+    public String getSubjectCategory(int row) {return pool.decode(page(row).subjectCategories[row & PAGE_MASK]);}
+
+    /**
+     * Sets the subject of the row
+     * @param row The row
+     * @param subject The subject of the row
+     */
+    public void setSubjectCategory(int row, String subject) {page(row).subjectCategories[row & PAGE_MASK] = pool.encode(subject);}
+
+    /**
+     * Returns the first author of the row
+     * @param row The row
+     * @return The first author of the row
+     */
+    public String getFirstAuthor(int row) {return pool.decode(page(row).firstAuthors[row & PAGE_MASK]);}
+
+    /**
+     * Sets the first author of the row
+     * @param row The row
+     * @param author The first author of the row
+     */
+    public void setFirstAuthor(int row, String author) {page(row).firstAuthors[row & PAGE_MASK] = pool.encode(author);}
+
+    /**
+     * Returns the second author of the row
+     * @param row The row
+     * @return The second author of the row
+     */
+    public String getSecondAuthor(int row) {return pool.decode(page(row).secondAuthors[row & PAGE_MASK]);}
+
+    /**
+     * Sets the second author of the row
+     * @param row The row
+     * @param author The second author of the row
+     */
+    public void setSecondAuthor(int row, String author) {page(row).secondAuthors[row & PAGE_MASK] = pool.encode(author);}
+
+    /**
+     * Returns the affiliation of the first author of the row
+     * @param row The row
+     * @return The affiliation of the first author of the row
+     */
+    public String getFirstAuthorAffiliation(int row) {return pool.decode(page(row).firstAuthorAffiliations[row & PAGE_MASK]);}
+
+    /**
+     * Sets the affiliation of the first author of the row
+     * @param row The row
+     * @param affiliation The affiliation of the first author of the row
+     */
+    public void setFirstAuthorAffiliation(int row, String affiliation) {page(row).firstAuthorAffiliations[row & PAGE_MASK] = pool.encode(affiliation);}
+
+    /**
+     * Returns the affiliation of the second author of the row
+     * @param row The row
+     * @return The affiliation of the second author of the row
+     */
+    public String getSecondAuthorAffiliation(int row) {return pool.decode(page(row).secondAuthorAffiliations[row & PAGE_MASK]);}
+
+    /**
+     * Sets the affiliation of the second author of the row
+     * @param row The row
+     * @param affiliation The affiliation of the second author of the row
+     */
+    public void setSecondAuthorAffiliation(int row, String affiliation) {page(row).secondAuthorAffiliations[row & PAGE_MASK] = pool.encode(affiliation);}
+
+    /**
+     * Returns the number of copies available of the row
+     * @param row The row
+     * @return The number of copies available of the row
+     */
+    public int getNumberOfCopies(int row) {return page(row).numberOfCopies[row & PAGE_MASK];}
+
+    /**
+     * Sets the number of copies available of the row
+     * @param row The row
+     * @param copies The number of copies available of the row
+     */
+    public void setNumberOfCopies(int row, int copies) {page(row).numberOfCopies[row & PAGE_MASK] = copies;}
+
+    /**
+     * Returns the expected publication date of the row in its original form
+     * @param row The row
+     * @return The expected publication date
+     */
+    public String getExpectedPublicationDate(int row)
+    {
+        int date = page(row).publicationDates[row & PAGE_MASK];
+        if (date == Integer.MIN_VALUE) {return null;}
+        if (date < 0) {return pool.decode(-date - 1);}
+
+        int year = date / 12;
+        return MONTHS[date % 12] + "-" + (year < 10 ? "0" : "") + year;
+    }
+
+    /**
+     * Sets the expected publication date of the row. Dates of the form "Mmm-yy" are packed 
+     * into a single int; anything else is dictionary encoded so it reads back unchanged.
+     * @param row The row
+     * @param date The expected publication date
+     */
+    public void setExpectedPublicationDate(int row, String date)
+    {
+        int packed = packDate(date);
+        if (packed < 0 && date != null) {packed = -pool.encode(date) - 1;}
+        page(row).publicationDates[row & PAGE_MASK] = packed;
+    }
+
+    /**
+     * Packs a date of the form "Mmm-yy" into yy * 12 + month
+     * @param date The date to pack
+     * @return The packed date, or Integer.MIN_VALUE if the date is not in that form
+     */
+    private static int packDate(String date)
+    {
+        if (date == null || date.length() != 6 || date.charAt(3) != '-') {return Integer.MIN_VALUE;}
+        char tens = date.charAt(4), ones = date.charAt(5);
+        if (tens < '0' || tens > '9' || ones < '0' || ones > '9') {return Integer.MIN_VALUE;}
+
+        for (int month = 0; month < MONTHS.length; month++)
+        {
+            if (date.startsWith(MONTHS[month]))
+            {
+                return ((tens - '0') * 10 + (ones - '0')) * 12 + month;
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+}
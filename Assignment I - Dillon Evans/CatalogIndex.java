@@ -0,0 +1,234 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes over the fields of the books in the catalog. Every field has a hash
+ * index for exact matches and a sorted index for range queries. Values are trimmed and
+ * case folded, and each index maps a value to the books holding it in the order they were
+ * added. Queries with several criteria intersect the posting sets, starting from the smallest,
+ * instead of scanning the catalog.
+ *
+ * A book's fields are read when it is added and removed, so a book must be removed before
+ * any of its indexed fields are changed and added again afterwards.
+ * @author Dillon Evans
+ */
+public class CatalogIndex
+{
+    /**
+     * The fields of a book that can be queried
+     */
+    public enum Field
+    {
+        ISBN, DOI, FIRST_AUTHOR, SECOND_AUTHOR, AUTHOR, AFFILIATION, SUBJECT;
+
+        /**
+         * Returns the values of the field for a book. AUTHOR and AFFILIATION match either
+         * the first or the second author.
+         * @param book The book to read
+         * @return The values of the field, some of which may be blank
+         */
+        private String[] valuesOf(Book book)
+        {
+            switch (this)
+            {
+                case ISBN: return new String[] {book.getISBN()};
+                case DOI: return new String[] {book.getDOI()};
+                case FIRST_AUTHOR: return new String[] {book.getFirstAuthor()};
+                case SECOND_AUTHOR: return new String[] {secondAuthorOf(book)};
+                case AUTHOR: return new String[] {book.getFirstAuthor(), secondAuthorOf(book)};
+                case AFFILIATION: return new String[] {book.getFirstAuthorAffiliation(), book.getSecondAuthorAffiliation()};
+                default: return new String[] {book.getSubjectCategory()};
+            }
+        }
+
+        /**
+         * Returns the raw second author, since Book.getSecondAuthor reports a missing one as "N/A"
+         * @param book The book to read
+         * @return The second author or null
+         */
+        private static String secondAuthorOf(Book book) {return book.hasSecondAuthor() ? book.getSecondAuthor() : null;}
+    }
+
+    /**
+     * A single field = value condition of a query
+     */
+    public static class Criterion
+    {
+        private Field field;
+        private String value;
+
+        /**
+         * Creates a new Criterion object
+         * @param field The field to match
+         * @param value The value the field must have, ignoring case
+         */
+        public Criterion(Field field, String value)
+        {
+            this.field = field;
+            this.value = value;
+        }
+    }
+
+    private EnumMap<Field, HashMap<String, LinkedHashSet<Book>>> hashIndexes = new EnumMap<>(Field.class);
+    private EnumMap<Field, TreeMap<String, LinkedHashSet<Book>>> sortedIndexes = new EnumMap<>(Field.class);
+
+    /**
+     * Creates a new, empty CatalogIndex
+     */
+    public CatalogIndex()
+    {
+        for (Field field : Field.values())
+        {
+            hashIndexes.put(field, new HashMap<>());
+            sortedIndexes.put(field, new TreeMap<>());
+        }
+    }
+
+    /**
+     * Creates a criterion for a query
+     * @param field The field to match
+     * @param value The value the field must have, ignoring case
+     * @return The criterion
+     */
+    public static Criterion where(Field field, String value) {return new Criterion(field, value);}
+
+    /**
+     * Returns the key a value is indexed under
+     * @param value The value of a field
+     * @return The trimmed, case folded value, or null if the value is blank
+     */
+    private static String normalize(String value)
+    {
+        return (value == null || value.isBlank()) ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a book to every index
+     * @param book The book to add
+     */
+    public synchronized void add(Book book)
+    {
+        for (Field field : Field.values())
+        {
+            for (String value : field.valuesOf(book))
+            {
+                String key = normalize(value);
+                if (key == null) {continue;}
+
+                //The hash and sorted index share the posting set, so it is only stored once
+                LinkedHashSet<Book> books = hashIndexes.get(field).get(key);
+                if (books == null)
+                {
+                    books = new LinkedHashSet<>();
+                    hashIndexes.get(field).put(key, books);
+                    sortedIndexes.get(field).put(key, books);
+                }
+                books.add(book);
+            }
+        }
+    }
+
+    /**
+     * Removes a book from every index
+     * @param book The book to remove
+     */
+    public synchronized void remove(Book book)
+    {
+        for (Field field : Field.values())
+        {
+            for (String value : field.valuesOf(book))
+            {
+                String key = normalize(value);
+                LinkedHashSet<Book> books = (key != null) ? hashIndexes.get(field).get(key) : null;
+                if (books == null) {continue;}
+
+                books.remove(book);
+                if (books.isEmpty())
+                {
+                    hashIndexes.get(field).remove(key);
+                    sortedIndexes.get(field).remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the books whose field has the specified value, ignoring case
+     * @param field The field to match
+     * @param value The value to match
+     * @return The matching books in the order they were added
+     */
+    public synchronized ArrayList<Book> find(Field field, String value)
+    {
+        String key = normalize(value);
+        LinkedHashSet<Book> books = (key != null) ? hashIndexes.get(field).get(key) : null;
+        return (books != null) ? new ArrayList<>(books) : new ArrayList<>();
+    }
+
+    /**
+     * Returns the books whose field falls between the two values, ignoring case. Books are
+     * ordered by the value of the field and then by the order they were added.
+     * @param field The field to match
+     * @param from The lowest value to include
+     * @param to The highest value to include
+     * @return The matching books
+     */
+    public synchronized ArrayList<Book> range(Field field, String from, String to)
+    {
+        ArrayList<Book> matches = new ArrayList<>();
+        HashSet<Book> seen = new HashSet<>();
+        String low = normalize(from), high = normalize(to);
+        if (low == null || high == null || low.compareTo(high) > 0) {return matches;}
+
+        for (Map.Entry<String, LinkedHashSet<Book>> entry : sortedIndexes.get(field).subMap(low, true, high, true).entrySet())
+        {
+            for (Book book : entry.getValue())
+            {
+                //A book with both authors in range is only reported once
+                if (seen.add(book)) {matches.add(book);}
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the books that satisfy every criterion. The posting set of each criterion
+     * is looked up in the hash indexes, and the smallest set is filtered against the others,
+     * so the cost depends on the smallest posting set rather than the catalog.
+     * @param criteria The conditions a book must satisfy
+     * @return The matching books in the order they were added
+     */
+    public synchronized ArrayList<Book> query(Criterion... criteria)
+    {
+        ArrayList<Book> matches = new ArrayList<>();
+        if (criteria.length == 0) {return matches;}
+
+        ArrayList<LinkedHashSet<Book>> postings = new ArrayList<>(criteria.length);
+        for (Criterion criterion : criteria)
+        {
+            String key = normalize(criterion.value);
+            LinkedHashSet<Book> books = (key != null) ? hashIndexes.get(criterion.field).get(key) : null;
+            if (books == null) {return matches;}
+            postings.add(books);
+        }
+        postings.sort(Comparator.comparingInt(LinkedHashSet::size));
+
+        for (Book book : postings.get(0))
+        {
+            boolean matchesAll = true;
+            for (int i = 1; i < postings.size() && matchesAll; i++)
+            {
+                matchesAll = postings.get(i).contains(book);
+            }
+            if (matchesAll) {matches.add(book);}
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,347 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk loader for Books.txt and Students.txt. The file is memory mapped and split into
+ * newline aligned chunks which are parsed in parallel. Tab separated fields are decoded
+ * straight from the mapped bytes, and the chunk results are merged back in file order.
+ * @author Dillon Evans
+ */
+public class CatalogLoader
+{
+    private static final int BOOK_FIELDS = 10;
+    private static final long MAX_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * A single row of Students.txt: a student and the titles they are requesting
+     */
+    public static class RentalRequest
+    {
+        private String studentName;
+        private boolean quoted;
+        private ArrayList<String> titles = new ArrayList<>();
+
+        /**
+         * Returns the name of the student with the quotation marks removed
+         * @return The name of the student
+         */
+        public String getStudentName() {return studentName;}
+
+        /**
+         * Returns true if the name was quoted in the file. Unquoted names do not
+         * match the rest of the data set and are ignored.
+         * @return True if the name was quoted in the file
+         */
+        public boolean isQuoted() {return quoted;}
+
+        /**
+         * Returns the non blank titles the student is requesting, in file order
+         * @return The titles the student is requesting
+         */
+        public ArrayList<String> getTitles() {return titles;}
+    }
+
+    /**
+     * Parses a single chunk of a mapped file into a list of results
+     */
+    private interface ChunkParser<T>
+    {
+        /**
+         * Parses one trimmed line of the file
+         * @param buffer The mapped chunk
+         * @param start The index of the first byte of the line
+         * @param end The index after the last byte of the line
+         * @return The parsed row, or null if the line should be skipped
+         * @throws IOException If the line is malformed
+         */
+        T parseLine(MappedByteBuffer buffer, int start, int end) throws IOException;
+    }
+
+    /**
+     * Loads every book found in the file into a new list, preserving file order. The books are
+     * stored in a catalog of their own, which is freed with them once the list is dropped.
+     * @param file The path to Books.txt
+     * @return The list of books keyed by title
+     * @throws IOException If the file cannot be read or a row is malformed
+     */
+    public static ElementList<Book> loadBooks(Path file) throws IOException
+    {
+        BookCatalog catalog = new BookCatalog();
+        ElementList<Book> bookList = new ElementList<>();
+        for (Book book : load(file, (buffer, start, end) -> parseBook(catalog, buffer, start, end)))
+        {
+            bookList.append(book.getTitle(), book);
+        }
+        return bookList;
+    }
+
+    /**
+     * Parses every row of Students.txt. The rentals are returned in file order so that
+     * the caller can apply them sequentially and keep the waitlists deterministic.
+     * @param file The path to Students.txt
+     * @return The rental requests found in the file
+     * @throws IOException If the file cannot be read
+     */
+    public static List<RentalRequest> loadRentalRequests(Path file) throws IOException
+    {
+        return load(file, CatalogLoader::parseRentalRequest);
+    }
+
+    /**
+     * Maps the file, parses its chunks in parallel and concatenates the results in order
+     * @param file The file to load
+     * @param parser The parser used for each line
+     * @return Every parsed row in file order
+     * @throws IOException If the file cannot be read or a row is malformed
+     */
+    private static <T> List<T> load(Path file, ChunkParser<T> parser) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            int threads = Runtime.getRuntime().availableProcessors();
+            int chunkCount = (int)Math.max(Math.min(threads, size / 4096 + 1), size / MAX_CHUNK_SIZE + 1);
+            long[] boundaries = findBoundaries(channel, size, chunkCount);
+            List<T> rows = new ArrayList<>();
+
+            if (chunkCount == 1)
+            {
+                rows.addAll(parseChunk(channel, 0, size, parser));
+                return rows;
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, chunkCount));
+            try
+            {
+                List<Callable<List<T>>> tasks = new ArrayList<>();
+                for (int i = 0; i < chunkCount; i++)
+                {
+                    long start = boundaries[i], end = boundaries[i + 1];
+                    tasks.add(() -> parseChunk(channel, start, end, parser));
+                }
+
+                //invokeAll returns the futures in task order, which keeps the merge deterministic
+                for (Future<List<T>> result : pool.invokeAll(tasks))
+                {
+                    rows.addAll(result.get());
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Loading " + file + " was interrupted.", e);
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException) {throw (IOException)e.getCause();}
+                throw new IOException(e.getCause());
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Splits the file into chunks of roughly equal size, moving every boundary forward
+     * so that it falls directly after a newline.
+     * @param channel The open file
+     * @param size The size of the file
+     * @param chunkCount The number of chunks to create
+     * @return chunkCount + 1 offsets where chunk i spans [boundaries[i], boundaries[i + 1])
+     * @throws IOException If the file cannot be read
+     */
+    private static long[] findBoundaries(FileChannel channel, long size, int chunkCount) throws IOException
+    {
+        long[] boundaries = new long[chunkCount + 1];
+        boundaries[chunkCount] = size;
+
+        for (int i = 1; i < chunkCount; i++)
+        {
+            long position = Math.max(size * i / chunkCount, boundaries[i - 1]);
+            while (position < size)
+            {
+                int window = (int)Math.min(4096, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+                int j = 0;
+                while (j < window && buffer.get(j) != '\n') {j++;}
+                position += j;
+                if (j < window)
+                {
+                    position++;
+                    break;
+                }
+            }
+            boundaries[i] = position;
+        }
+        return boundaries;
+    }
+
+    /**
+     * Maps and parses a single newline aligned chunk of the file
+     * @param channel The open file
+     * @param start The offset of the first byte of the chunk
+     * @param end The offset after the last byte of the chunk
+     * @param parser The parser used for each line
+     * @return The parsed rows of the chunk in order
+     * @throws IOException If a row is malformed
+     */
+    private static <T> List<T> parseChunk(FileChannel channel, long start, long end, ChunkParser<T> parser) throws IOException
+    {
+        List<T> rows = new ArrayList<>();
+        if (start >= end) {return rows;}
+
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        int limit = (int)(end - start), lineStart = 0;
+
+        while (lineStart < limit)
+        {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && chunk.get(lineEnd) != '\n') {lineEnd++;}
+
+            //Trim the line the same way String.trim does, which also drops '\r'
+            int first = lineStart, last = lineEnd;
+            while (first < last && (chunk.get(first) & 0xFF) <= ' ') {first++;}
+            while (last > first && (chunk.get(last - 1) & 0xFF) <= ' ') {last--;}
+
+            if (first < last)
+            {
+                T row = parser.parseLine(chunk, first, last);
+                if (row != null) {rows.add(row);}
+            }
+            lineStart = lineEnd + 1;
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the index of the next tab at or after start, or end if there is none
+     * @param buffer The mapped chunk
+     * @param start The index to start searching at
+     * @param end The end of the line
+     * @return The index of the next tab or end
+     */
+    private static int nextTab(MappedByteBuffer buffer, int start, int end)
+    {
+        while (start < end && buffer.get(start) != '\t') {start++;}
+        return start;
+    }
+
+    /**
+     * Decodes a UTF-8 field of the mapped chunk
+     * @param buffer The mapped chunk
+     * @param start The index of the first byte of the field
+     * @param end The index after the last byte of the field
+     * @return The decoded field
+     */
+    private static String decode(MappedByteBuffer buffer, int start, int end)
+    {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a single row of Books.txt
+     * @param catalog The catalog that stores the fields of the book
+     * @param buffer The mapped chunk
+     * @param start The index of the first byte of the line
+     * @param end The index after the last byte of the line
+     * @return The book described by the row
+     * @throws IOException If the row does not have every field
+     */
+    private static Book parseBook(BookCatalog catalog, MappedByteBuffer buffer, int start, int end) throws IOException
+    {
+        Book book = new Book(catalog);
+        int field = 0, position = start;
+
+        while (field < BOOK_FIELDS && position <= end)
+        {
+            int tab = nextTab(buffer, position, end);
+            String value = decode(buffer, position, tab);
+            switch (field)
+            {
+                case 0: book.setTitle(value); break;
+                case 1: book.setISBN(value); break;
+                case 2: book.setDOI(value); break;
+                case 3: book.setSubjectCategory(value); break;
+                case 4: book.setExpectedPublicationDate(value); break;
+                case 5: book.setFirstAuthor(value); break;
+                case 6: book.setSecondAuthor(value); break;
+                case 7: book.setFirstAuthorAffiliation(value); break;
+                case 8: book.setSecondAuthorAffiliation(value); break;
+                default: book.setNumberOfCopies(parseCount(buffer, position, tab)); break;
+            }
+            field++;
+            position = tab + 1;
+        }
+
+        if (field < BOOK_FIELDS)
+        {
+            throw new IOException("Malformed book entry: " + decode(buffer, start, end));
+        }
+        return book;
+    }
+
+    /**
+     * Parses a non negative decimal integer directly from the mapped bytes
+     * @param buffer The mapped chunk
+     * @param start The index of the first digit
+     * @param end The index after the last digit
+     * @return The parsed integer
+     * @throws IOException If the field is not a number
+     */
+    private static int parseCount(MappedByteBuffer buffer, int start, int end) throws IOException
+    {
+        int value = 0;
+        if (start >= end) {throw new IOException("Missing number of copies.");}
+        for (int i = start; i < end; i++)
+        {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9)
+            {
+                throw new IOException("Invalid number of copies: " + decode(buffer, start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses a single row of Students.txt
+     * @param buffer The mapped chunk
+     * @param start The index of the first byte of the line
+     * @param end The index after the last byte of the line
+     * @return The rental request described by the row
+     */
+    private static RentalRequest parseRentalRequest(MappedByteBuffer buffer, int start, int end)
+    {
+        RentalRequest request = new RentalRequest();
+        int tab = nextTab(buffer, start, end);
+        String name = decode(buffer, start, tab);
+
+        request.quoted = name.indexOf('"') >= 0;
+        request.studentName = request.quoted ? name.replace("\"", "") : name;
+
+        for (int position = tab + 1; position <= end; position = tab + 1)
+        {
+            tab = nextTab(buffer, position, end);
+            String title = decode(buffer, position, tab);
+            if (!title.isBlank()) {request.titles.add(title);}
+        }
+        return request;
+    }
+}
@@ -0,0 +1,616 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Recommends books by co-rental: the books most often rented by the students who rented a
+ * given book. The index is a sparse item-item matrix keyed by the title ids of IdRegistry. Each
+ * title has a row holding, for every other title rented by one of its renters, the number of
+ * students who rented both, and the topK entries of the row kept sorted by that count, so a
+ * recommendation is a copy of a short array.
+ *
+ * The rows are built with fork/join from the rentals of every student: the titles are split
+ * into ranges, and each range counts its rows by walking the renters of its titles and their
+ * other books, so no two tasks write to the same row and nothing has to be merged.
+ *
+ * After that the index is updated one checkout at a time. A student's rentals are remembered
+ * when the index is built and whenever a checkout is applied, and a checkout of a book the
+ * student had not rented before adds one to the pair of that book and each of the others.
+ * Returning a book does not remove anything, since the student still rented it. Counts only
+ * grow, so a title can only enter a top list when its own count in the row grows, and the top
+ * lists stay exact without rescanning a row.
+ *
+ * Checkouts are recorded while the book's monitor is held, so recording only puts the event in a
+ * bounded queue. A single applier thread takes the events in batches and updates the rows, so the
+ * work per checkout under the monitor is constant and the remembered rentals need no lock. A
+ * recommendation can lag the checkouts still in the queue; sync waits for them. Rows are guarded
+ * by their own monitors so recommendations read them consistently. Titles interned after the
+ * index was built are not tracked.
+ * @author Dillon Evans
+ */
+public class CoRentalIndex
+{
+    public static final int DEFAULT_TOP_K = 10;
+    private static final int EMPTY = -1, QUEUE_CAPACITY = 65536, BATCH_SIZE = 256;
+
+    /**
+     * A checkout waiting to be applied, or a marker that completes once the events before it are
+     */
+    private static class Event
+    {
+        private static final int SYNC = -1, STOP = -2;
+
+        private int titleId, studentId;
+        private CompletableFuture<Void> applied;
+
+        /**
+         * Creates a new Event object
+         * @param titleId The id of the title checked out, or SYNC or STOP for a marker
+         * @param studentId The id of the student
+         * @param applied The future completed when a marker is reached, null for a checkout
+         */
+        private Event(int titleId, int studentId, CompletableFuture<Void> applied)
+        {
+            this.titleId = titleId;
+            this.studentId = studentId;
+            this.applied = applied;
+        }
+    }
+
+    /**
+     * The co-rental counts of a title and its best entries
+     */
+    private static class Row
+    {
+        //Open addressing table from the id of another title to the number of students who rented both
+        private int[] keys = new int[0], counts = new int[0];
+        private int size;
+
+        //The best entries by count, then by id, highest count first
+        private int[] topIds, topCounts;
+        private int topSize;
+
+        /**
+         * Creates a new Row object
+         * @param topK The number of best entries kept
+         */
+        private Row(int topK)
+        {
+            topIds = new int[topK];
+            topCounts = new int[topK];
+        }
+
+        /**
+         * Adds one to the count of another title
+         * @param other The id of the other title
+         * @return The new count
+         */
+        private int increment(int other)
+        {
+            int slot = find(other);
+            if (slot >= 0) {return ++counts[slot];}
+            if ((size + 1) * 2 > keys.length) {resize(Math.max(8, keys.length * 2));}
+            slot = emptySlot(other);
+            keys[slot] = other;
+            counts[slot] = 1;
+            size++;
+            return 1;
+        }
+
+        /**
+         * Returns the count of another title
+         * @param other The id of the other title
+         * @return The number of students who rented both, 0 if none did
+         */
+        private int countOf(int other)
+        {
+            int slot = find(other);
+            return (slot >= 0) ? counts[slot] : 0;
+        }
+
+        /**
+         * Moves another title into the top entries if its new count earns it a place
+         * @param other The id of the other title
+         * @param count Its new count, which is higher than before
+         */
+        private void offer(int other, int count)
+        {
+            int i = 0;
+            while (i < topSize && topIds[i] != other) {i++;}
+            if (i == topSize)
+            {
+                if (topSize < topIds.length) {topSize++;}
+                else if (!better(count, other, topCounts[i - 1], topIds[i - 1])) {return;}
+                else {i--;}
+            }
+
+            //The count only grew, so the entry can only move towards the front
+            while (i > 0 && better(count, other, topCounts[i - 1], topIds[i - 1]))
+            {
+                topIds[i] = topIds[i - 1];
+                topCounts[i] = topCounts[i - 1];
+                i--;
+            }
+            topIds[i] = other;
+            topCounts[i] = count;
+        }
+
+        /**
+         * Returns the table slot holding a title
+         * @param other The id of the title
+         * @return The slot, or -1 if the title is not in the row
+         */
+        private int find(int other)
+        {
+            if (size == 0) {return -1;}
+            int mask = keys.length - 1;
+            for (int slot = mix(other) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask)
+            {
+                if (keys[slot] == other) {return slot;}
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the first empty slot of the probe sequence of a title
+         * @param other The id of the title
+         * @return The slot
+         */
+        private int emptySlot(int other)
+        {
+            int mask = keys.length - 1, slot = mix(other) & mask;
+            while (keys[slot] != EMPTY) {slot = (slot + 1) & mask;}
+            return slot;
+        }
+
+        /**
+         * Rehashes the row into a table of a new size
+         * @param capacity The number of slots, a power of two
+         */
+        private void resize(int capacity)
+        {
+            int[] oldKeys = keys, oldCounts = counts;
+            keys = new int[capacity];
+            counts = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldKeys[i] == EMPTY) {continue;}
+                int slot = emptySlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Counts the rows of a range of titles, splitting it while it is large
+     */
+    private class BuildTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private int from, to, threshold;
+        private int[][] rentersOf;
+
+        /**
+         * Creates a new BuildTask object
+         * @param from The first title id of the range
+         * @param to The title id after the range
+         * @param threshold The largest range counted without splitting
+         * @param rentersOf The student ids of the renters of every title
+         */
+        private BuildTask(int from, int to, int threshold, int[][] rentersOf)
+        {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.rentersOf = rentersOf;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > threshold)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BuildTask(from, middle, threshold, rentersOf), new BuildTask(middle, to, threshold, rentersOf));
+                return;
+            }
+
+            //A dense count per title and the titles touched, reset after every row
+            int[] scratch = new int[rows.length];
+            int[] touched = new int[rows.length];
+            for (int title = from; title < to; title++)
+            {
+                int touchedCount = 0;
+                for (int student : rentersOf[title])
+                {
+                    for (int i = 0; i < historySize[student]; i++)
+                    {
+                        int other = history[student][i];
+                        if (other != title && scratch[other]++ == 0) {touched[touchedCount++] = other;}
+                    }
+                }
+                rows[title] = buildRow(scratch, touched, touchedCount);
+                for (int i = 0; i < touchedCount; i++) {scratch[touched[i]] = 0;}
+            }
+        }
+    }
+
+    private final int topK;
+    private final Row[] rows;
+    private final Book[] books;
+
+    //The title ids each student id has rented, only used by the applier once it has started
+    private int[][] history;
+    private int[] historySize;
+
+    private final ArrayBlockingQueue<Event> events = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread applier;
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates an index of the rentals of every student, counting the rows in parallel
+     * @param bookList The books of the catalog, which are the books recommended
+     * @param students The students whose rentals are counted
+     * @param topK The most recommendations kept for each book
+     */
+    public CoRentalIndex(Iterable<Book> bookList, Iterable<Student> students, int topK)
+    {
+        if (topK < 1) {throw new IllegalArgumentException("At least one recommendation must be kept.");}
+        this.topK = topK;
+        int titleCount = IdRegistry.titles().size();
+        rows = new Row[titleCount];
+        books = new Book[titleCount];
+        for (Book book : bookList)
+        {
+            int titleId = book.getTitleId();
+            if (titleId >= 0 && titleId < titleCount && books[titleId] == null) {books[titleId] = book;}
+        }
+
+        history = new int[Math.max(16, IdRegistry.students().size())][];
+        historySize = new int[history.length];
+        int[] renterCount = new int[titleCount];
+        for (Student student : students)
+        {
+            int studentId = student.getId();
+            if (studentId < 0) {continue;}
+            for (Book book : student.getRentedBooks())
+            {
+                int titleId = book.getTitleId();
+                if (titleId >= 0 && titleId < titleCount && remember(studentId, titleId)) {renterCount[titleId]++;}
+            }
+        }
+
+        //The renters of every title, the transpose of the histories
+        int[][] rentersOf = new int[titleCount][];
+        for (int title = 0; title < titleCount; title++) {rentersOf[title] = new int[renterCount[title]];}
+        Arrays.fill(renterCount, 0);
+        for (int student = 0; student < history.length; student++)
+        {
+            for (int i = 0; i < historySize[student]; i++)
+            {
+                int title = history[student][i];
+                rentersOf[title][renterCount[title]++] = student;
+            }
+        }
+
+        //A few ranges per worker leaves room to balance popular titles without many scratch arrays
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int threshold = Math.max(64, titleCount / (parallelism * 8) + 1);
+        ForkJoinPool.commonPool().invoke(new BuildTask(0, titleCount, threshold, rentersOf));
+
+        //Starting the thread after the build publishes the rows and histories to it
+        applier = new Thread(this::applyEvents, "library-co-rentals");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    /**
+     * Records that a student checked out a book. The checkout is queued and applied by the
+     * applier thread; callers only wait if the queue is full.
+     * @param book The book checked out
+     * @param student The student renting it
+     */
+    public void recordCheckOut(Book book, Student student)
+    {
+        int titleId = book.getTitleId(), studentId = student.getId();
+        if (titleId < 0 || titleId >= rows.length || studentId < 0 || stopped) {return;}
+        enqueue(new Event(titleId, studentId, null));
+    }
+
+    /**
+     * Returns a future that completes once every checkout recorded before it has been applied
+     * @return The future
+     */
+    public CompletableFuture<Void> sync()
+    {
+        Event marker = new Event(Event.SYNC, EMPTY, new CompletableFuture<>());
+        enqueue(marker);
+        return marker.applied;
+    }
+
+    /**
+     * Applies the checkouts already recorded and stops the applier thread. Later checkouts are ignored.
+     * @throws InterruptedException If interrupted while waiting for the applier to stop
+     */
+    public void shutdown() throws InterruptedException
+    {
+        stopped = true;
+        events.put(new Event(Event.STOP, EMPTY, new CompletableFuture<>()));
+        applier.join();
+    }
+
+    /**
+     * Returns the books most often rented by the students who rented a book, most often first.
+     * Books with the same count are in the order their titles were first interned.
+     * @param title The title of the book, ignoring case
+     * @param limit The most books to return
+     * @return The recommended books, empty if the title is unknown or nobody rented it with another book
+     */
+    public List<Book> recommend(String title, int limit)
+    {
+        int titleId = IdRegistry.titles().find(title);
+        List<Book> recommended = new ArrayList<>();
+        if (titleId < 0 || titleId >= rows.length) {return recommended;}
+
+        int[] ids;
+        Row row = rows[titleId];
+        synchronized (row)
+        {
+            ids = Arrays.copyOf(row.topIds, Math.min(Math.max(0, limit), row.topSize));
+        }
+        for (int id : ids)
+        {
+            if (books[id] != null) {recommended.add(books[id]);}
+        }
+        return recommended;
+    }
+
+    /**
+     * Returns the number of students who rented both of two books
+     * @param first The first book
+     * @param second The second book
+     * @return The co-rental count
+     */
+    public int getCount(Book first, Book second)
+    {
+        int a = first.getTitleId(), b = second.getTitleId();
+        if (a < 0 || a >= rows.length || b < 0 || b >= rows.length || a == b) {return 0;}
+        Row row = rows[a];
+        synchronized (row)
+        {
+            return row.countOf(b);
+        }
+    }
+
+    /**
+     * Returns the most recommendations kept for each book
+     * @return The number of top entries of each row
+     */
+    public int getTopK() {return topK;}
+
+    /**
+     * Puts an event in the queue, waiting while it is full
+     * @param event The event
+     */
+    private void enqueue(Event event)
+    {
+        try
+        {
+            events.put(event);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            if (event.applied != null) {event.applied.completeExceptionally(e);}
+        }
+    }
+
+    /**
+     * Applies the queued events until told to stop, taking them from the queue in batches
+     */
+    private void applyEvents()
+    {
+        ArrayList<Event> batch = new ArrayList<>(BATCH_SIZE);
+        try
+        {
+            while (true)
+            {
+                batch.add(events.take());
+                events.drainTo(batch, BATCH_SIZE - 1);
+                for (Event event : batch)
+                {
+                    if (event.applied == null) {apply(event.titleId, event.studentId);}
+                    else
+                    {
+                        event.applied.complete(null);
+                        if (event.titleId == Event.STOP) {return;}
+                    }
+                }
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            //The index was shut down abruptly
+        }
+    }
+
+    /**
+     * Applies a checkout. Each book the student rented before gains one co-rental with it,
+     * unless the student had rented this book before too.
+     * @param titleId The id of the title checked out
+     * @param studentId The id of the student
+     */
+    private void apply(int titleId, int studentId)
+    {
+        int before = (studentId < history.length) ? historySize[studentId] : 0;
+        if (!remember(studentId, titleId)) {return;}
+        int[] others = history[studentId];
+        for (int i = 0; i < before; i++)
+        {
+            increment(rows[titleId], others[i]);
+            increment(rows[others[i]], titleId);
+        }
+    }
+
+    /**
+     * Adds one to the count of a pair of titles and updates the top entries of the row
+     * @param row The row of the first title
+     * @param other The id of the second title
+     */
+    private static void increment(Row row, int other)
+    {
+        synchronized (row)
+        {
+            row.offer(other, row.increment(other));
+        }
+    }
+
+    /**
+     * Adds a title to the rentals remembered for a student. Called while building or by the applier.
+     * @param studentId The id of the student
+     * @param titleId The id of the title
+     * @return False if the student had already rented the title
+     */
+    private boolean remember(int studentId, int titleId)
+    {
+        if (studentId >= history.length)
+        {
+            int capacity = Math.max(studentId + 1, history.length * 2);
+            history = Arrays.copyOf(history, capacity);
+            historySize = Arrays.copyOf(historySize, capacity);
+        }
+        int[] titles = history[studentId];
+        int size = historySize[studentId];
+        for (int i = 0; i < size; i++)
+        {
+            if (titles[i] == titleId) {return false;}
+        }
+        if (titles == null) {titles = history[studentId] = new int[4];}
+        else if (size == titles.length) {titles = history[studentId] = Arrays.copyOf(titles, size * 2);}
+        titles[size] = titleId;
+        historySize[studentId] = size + 1;
+        return true;
+    }
+
+    /**
+     * Builds a row from the dense counts of a title, picking its top entries with a min-heap
+     * @param scratch The count of every title, non-zero only for the touched titles
+     * @param touched The ids of the titles with a count
+     * @param touchedCount The number of touched titles
+     * @return The row
+     */
+    private Row buildRow(int[] scratch, int[] touched, int touchedCount)
+    {
+        Row row = new Row(topK);
+        if (touchedCount == 0) {return row;}
+        row.resize(Integer.highestOneBit(touchedCount * 2 - 1) << 1);
+        row.size = touchedCount;
+
+        //The heap keeps the worst of the best entries found so far at its root
+        int[] heapIds = new int[Math.min(topK, touchedCount)];
+        int heapSize = 0;
+        for (int i = 0; i < touchedCount; i++)
+        {
+            int other = touched[i], count = scratch[other];
+            int slot = row.emptySlot(other);
+            row.keys[slot] = other;
+            row.counts[slot] = count;
+
+            if (heapSize < heapIds.length)
+            {
+                heapIds[heapSize] = other;
+                siftUp(heapIds, heapSize++, scratch);
+            }
+            else if (better(count, other, scratch[heapIds[0]], heapIds[0]))
+            {
+                heapIds[0] = other;
+                siftDown(heapIds, heapSize, scratch);
+            }
+        }
+
+        //Popping the worst entry each time fills the top entries from the back
+        row.topSize = heapSize;
+        while (heapSize > 0)
+        {
+            int worst = heapIds[0];
+            row.topIds[heapSize - 1] = worst;
+            row.topCounts[heapSize - 1] = scratch[worst];
+            heapIds[0] = heapIds[--heapSize];
+            siftDown(heapIds, heapSize, scratch);
+        }
+        return row;
+    }
+
+    /**
+     * Moves a heap entry up until its parent is worse than it
+     * @param heap The heap of title ids
+     * @param index The position of the entry
+     * @param counts The count of every title
+     */
+    private static void siftUp(int[] heap, int index, int[] counts)
+    {
+        int id = heap[index];
+        while (index > 0)
+        {
+            int parent = (index - 1) >>> 1;
+            if (!better(counts[heap[parent]], heap[parent], counts[id], id)) {break;}
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = id;
+    }
+
+    /**
+     * Moves the root of the heap down until both its children are better than it
+     * @param heap The heap of title ids
+     * @param size The number of entries in the heap
+     * @param counts The count of every title
+     */
+    private static void siftDown(int[] heap, int size, int[] counts)
+    {
+        if (size == 0) {return;}
+        int index = 0, id = heap[0];
+        while (true)
+        {
+            int child = 2 * index + 1;
+            if (child >= size) {break;}
+            if (child + 1 < size && better(counts[heap[child]], heap[child], counts[heap[child + 1]], heap[child + 1])) {child++;}
+            if (!better(counts[id], id, counts[heap[child]], heap[child])) {break;}
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = id;
+    }
+
+    /**
+     * Returns true if an entry ranks above another: a higher count, or the same count and a lower id
+     * @param count The count of the first entry
+     * @param id The title id of the first entry
+     * @param otherCount The count of the second entry
+     * @param otherId The title id of the second entry
+     * @return True if the first entry ranks above the second
+     */
+    private static boolean better(int count, int id, int otherCount, int otherId)
+    {
+        return count > otherCount || (count == otherCount && id < otherId);
+    }
+
+    /**
+     * Spreads a title id over the slots of a row
+     * @param id The id
+     * @return The mixed bits
+     */
+    private static int mix(int id)
+    {
+        int hash = id * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,223 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free FIFO version of ElementList for lists that are only appended to at the tail and
+ * removed from at the head, such as waitlists. It is a Michael-Scott queue: append links the new
+ * node after the tail with a compare-and-set and removeFirst advances the head the same way, so
+ * any number of threads can append and remove concurrently without locks.
+ *
+ * The element count is a relaxed counter: it is exact when the list is quiescent but may lag
+ * behind in-flight operations. Iteration is weakly consistent.
+ * @param <E> The object type to be used
+ * @author Dillon Evans
+ */
+public class ConcurrentElementList<E> implements Iterable<E>
+{
+    /**
+     * A node of the queue. The head always points at a dummy node whose successor holds the
+     * first element.
+     */
+    private static class Node<E>
+    {
+        private volatile String elementName;
+        private volatile E value;
+        private volatile Node<E> next;
+
+        /**
+         * Creates a new Node object
+         * @param elementName the name of the element to store
+         * @param value the element to store
+         */
+        private Node(String elementName, E value)
+        {
+            this.elementName = elementName;
+            this.value = value;
+        }
+    }
+
+    private static final VarHandle HEAD, TAIL, NEXT;
+    static
+    {
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(ConcurrentElementList.class, "head", Node.class);
+            TAIL = lookup.findVarHandle(ConcurrentElementList.class, "tail", Node.class);
+            NEXT = lookup.findVarHandle(Node.class, "next", Node.class);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile Node<E> head, tail;
+    private LongAdder elementCount = new LongAdder();
+
+    /**
+     * Creates a new, empty ConcurrentElementList
+     */
+    public ConcurrentElementList()
+    {
+        head = tail = new Node<>(null, null);
+    }
+
+    /**
+     * Adds an element to the end of the list
+     * @param name The name of the element
+     * @param element The element to insert at the end of the list
+     */
+    public void append(String name, E element)
+    {
+        Node<E> newElement = new Node<>(name, element);
+        while (true)
+        {
+            Node<E> last = tail, next = last.next;
+            if (last != tail) {continue;}
+
+            if (next == null)
+            {
+                if (NEXT.compareAndSet(last, null, newElement))
+                {
+                    //Failing here is fine, another thread already helped swing the tail
+                    TAIL.compareAndSet(this, last, newElement);
+                    elementCount.increment();
+                    return;
+                }
+            }
+            else
+            {
+                //The tail is lagging behind a completed append, help it along
+                TAIL.compareAndSet(this, last, next);
+            }
+        }
+    }
+
+    /**
+     * Removes the first element of the list and returns it
+     * @return The first element of the list, or null if the list is empty
+     */
+    public E removeFirst()
+    {
+        while (true)
+        {
+            Node<E> first = head, last = tail, next = first.next;
+            if (first != head) {continue;}
+
+            if (first == last)
+            {
+                if (next == null) {return null;}
+                TAIL.compareAndSet(this, last, next);
+            }
+            else
+            {
+                E value = next.value;
+                if (HEAD.compareAndSet(this, first, next))
+                {
+                    //next is the new dummy node, drop its references so they can be collected
+                    next.value = null;
+                    next.elementName = null;
+                    elementCount.decrement();
+                    return value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the first element of the list without removing it
+     * @return The first element of the list, or null if the list is empty
+     */
+    public E getFirst()
+    {
+        while (true)
+        {
+            Node<E> first = head, next = first.next;
+            if (next == null) {return null;}
+            E value = next.value;
+            if (first == head) {return value;}
+        }
+    }
+
+    /**
+     * Returns true if the list has no elements
+     * @return True if the list has no elements
+     */
+    public boolean isEmpty() {return head.next == null;}
+
+    /**
+     * Returns the relaxed number of elements in the list
+     * @return The number of elements in the list
+     */
+    public int getElementCount() {return (int)Math.max(0, elementCount.sum());}
+
+    /**
+     * Prints every element in the list
+     */
+    public void print()
+    {
+        for (E element : this)
+        {
+            System.out.printf("%s\n", element);
+        }
+    }
+
+    /**
+     * Returns true if an element with the specified name is in the list, ignoring case.
+     * This is a weakly consistent linear scan.
+     * @param elementName The name of the element to search for
+     * @return True if the element with the specified name exists in the list
+     */
+    public boolean contains(String elementName)
+    {
+        for (Node<E> current = head.next; current != null; current = current.next)
+        {
+            String name = current.elementName;
+            if (name != null && name.equalsIgnoreCase(elementName)) {return true;}
+        }
+        return false;
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the list. Elements removed or appended
+     * while iterating may or may not be returned.
+     */
+    public Iterator<E> iterator()
+    {
+        return new Iterator<E>()
+        {
+            Node<E> current = head;
+            E nextValue = advance();
+
+            /**
+             * Moves to the next node that still holds a value
+             * @return The value of that node, or null if the end was reached
+             */
+            private E advance()
+            {
+                for (current = current.next; current != null; current = current.next)
+                {
+                    E value = current.value;
+                    if (value != null) {return value;}
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {return nextValue != null;}
+
+            @Override
+            public E next()
+            {
+                if (nextValue == null) {throw new NoSuchElementException();}
+                E value = nextValue;
+                nextValue = advance();
+                return value;
+            }
+        };
+    }
+}
@@ -8,20 +8,25 @@
  * a book that is in demand.
  */
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Locale;
 import java.util.Scanner;
 
 public class Driver {
-    static boolean bookListCreated = false, studentListCreated = false;
+    static boolean bookListCreated = false, studentListCreated = false, rentalsRestored = false;
     static ElementList<Book> bookList, rentedBookList = new ElementList<>();
     static ElementList<Student> studentList = new ElementList<>();
     static Scanner input = new Scanner(System.in);
+    static RentalJournal journal;
+    static TitleIndex<Book> titleIndex = new TitleIndex<>();
+    static CatalogIndex catalogIndex = new CatalogIndex();
+    static TitleFilter titleFilter;
+    static CoRentalIndex coRentals;
+    //Prints the book and rental lists, kept for the session so its buffers are allocated once
+    static ReportWriter consoleReport = ReportWriter.toStream(System.out, ReportWriter.Format.TEXT);
+    static final int SUGGESTION_LIMIT = 10;
+    static final int SNAPSHOT_INTERVAL = 10000;
     
     /**
      * The program entry point
@@ -29,7 +34,15 @@ public class Driver {
      */
     public static void main(String[] args) 
     {
-        promptUser();
+        startMetrics();
+        if (args.length >= 2 && args[0].equals("--export"))
+        {
+            exportBookList(args[1], (args.length > 2) ? args[2] : "text");
+        }
+        else
+        {
+            promptUser();
+        }
     }
 
     /**
@@ -43,6 +56,7 @@ public class Driver {
         try
         {
             System.out.println("Welcome to the Library System! Enter one of the numbers below to perform the action specified.");
+            openJournal();
            
             //Continuously prompt the user until they are finished
             while (!quit)
@@ -78,6 +92,7 @@ public class Driver {
                         printWaitlist();
                         break;
                     case "8":
+                        closeJournal();
                         quit = true;
                         break;
                     default:
@@ -99,35 +114,138 @@ public class Driver {
      */
     public static void createBookList()
     {
-        String filePath, input;
-        String[] parsedTokens;
         try
         {
             if (bookListCreated) {throw new Exception("The list of books has already been created.");}
-            bookList = new ElementList<>();
-            filePath = "Books.txt";
-            Path file = Paths.get(filePath);
-            InputStream inStream = new BufferedInputStream(Files.newInputStream(file));
-            BufferedReader inReader = new BufferedReader(new InputStreamReader(inStream));      
-            while ((input = inReader.readLine()) != null)
+            long start = LibraryMetrics.LOAD_BOOKS.start();
+            bookList = CatalogLoader.loadBooks(Paths.get("Books.txt"));
+            for (Book book : bookList) 
             {
-                parsedTokens = input.trim().split("\t");
-                Book book = new Book();
-                book.setTitle(parsedTokens[0]);
-                book.setISBN(parsedTokens[1]);
-                book.setDOI(parsedTokens[2]);
-                book.setSubjectCategory(parsedTokens[3]);
-                book.setExpectedPublicationDate(parsedTokens[4]);
-                book.setFirstAuthor(parsedTokens[5]);
-                book.setSecondAuthor(parsedTokens[6]);
-                book.setFirstAuthorAffiliation(parsedTokens[7]);
-                book.setSecondAuthorAffiliation(parsedTokens[8]);
-                book.setNumberOfCopies(Integer.parseInt(parsedTokens[9]));
-                bookList.append(book.getTitle(), book);
+                titleIndex.add(book.getTitle(), book);
+                catalogIndex.add(book);
             }
-            inStream.close();
-            inReader.close();
+            titleFilter = new TitleFilter(bookList, TitleFilter.configuredFalsePositiveRate());
+            LibraryMetrics.LOAD_BOOKS.stop(start);
             bookListCreated = true;
+            restoreRentals();
+        }
+        catch (Exception e)
+        {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the library metrics through JMX. If the library.metrics.dump property is set,
+     * the metrics are also appended to library-metrics.log every that many seconds.
+     */
+    public static void startMetrics()
+    {
+        try
+        {
+            if (!LibraryMetrics.ENABLED) {return;}
+            LibraryMetrics.register();
+            String period = System.getProperty("library.metrics.dump");
+            if (period != null)
+            {
+                LibraryMetrics.startDump(Paths.get("library-metrics.log"), Math.max(1, Long.parseLong(period.trim())));
+            }
+        }
+        catch (Exception e)
+        {
+            System.out.println("Warning: The library metrics could not be published. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the rental journal. The library still works without one, but returns will be lost on exit.
+     */
+    public static void openJournal()
+    {
+        try
+        {
+            journal = new RentalJournal(Paths.get("rentals.journal"), Paths.get("rentals.snapshot"));
+        }
+        catch (Exception e)
+        {
+            System.out.println("Warning: The rental journal could not be opened. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Restores the rentals from the last snapshot and the journal, if there are any, and 
+     * then attaches the journal so every following rental event is recorded.
+     */
+    public static void restoreRentals()
+    {
+        try
+        {
+            if (journal == null) {return;}
+            if (journal.hasState())
+            {
+                studentList = journal.recover(bookList);
+                for (Book book : bookList)
+                {
+                    if (book.getRenterCount() > 0) {rentedBookList.append(book.getTitle(), book);}
+                }
+                studentListCreated = rentalsRestored = true;
+                buildCoRentals();
+                System.out.println("The rental information was restored from the journal.");
+            }
+            Book.setJournal(journal);
+        }
+        catch (Exception e)
+        {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Indexes the rentals of every student for co-rental recommendations, and keeps the
+     * index current with every following checkout
+     * @throws InterruptedException If interrupted while stopping the previous index
+     */
+    public static void buildCoRentals() throws InterruptedException
+    {
+        Book.setCoRentalIndex(null);
+        if (coRentals != null) {coRentals.shutdown();}
+        coRentals = new CoRentalIndex(bookList, studentList, CoRentalIndex.DEFAULT_TOP_K);
+        Book.setCoRentalIndex(coRentals);
+    }
+
+    /**
+     * Waits for the journaled rental events to be durable, taking a snapshot when
+     * enough events have accumulated or when forced.
+     * @param forceSnapshot True if a snapshot should always be taken
+     */
+    public static void saveRentalState(boolean forceSnapshot)
+    {
+        try
+        {
+            if (journal == null) {return;}
+            journal.sync();
+            if (studentListCreated && (forceSnapshot || journal.getEventsSinceSnapshot() >= SNAPSHOT_INTERVAL))
+            {
+                journal.writeSnapshot(bookList, studentList);
+            }
+        }
+        catch (Exception e)
+        {
+            System.out.println("Warning: The rental information could not be saved. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Takes a final snapshot and closes the rental journal
+     */
+    public static void closeJournal()
+    {
+        try
+        {
+            if (journal == null) {return;}
+            saveRentalState(true);
+            Book.setJournal(null);
+            journal.close();
         }
         catch (Exception e)
         {
@@ -138,12 +256,10 @@ public class Driver {
      /**
      * Creates a list of every student in the library system by parsing Students.txt
      * and rents them the requested book. If the book is unavailable the student will be added to the waitlist.
+     * Students.txt is not applied again on top of rentals restored from the journal.
      */
     public static void rentBooks()
     {
-        String[] parsedTokens;
-        String filePath, input;
-
         try
         {
             //The student list cannot be created until the book list is
@@ -151,22 +267,19 @@ public class Driver {
             {
                 throw new Exception("Please populate the student list first.");
             }
+            if (rentalsRestored)
+            {
+                throw new Exception("The rental information was already restored from the journal.");
+            }
             
-            filePath = "Students.txt";
+            long start = LibraryMetrics.LOAD_RENTALS.start();
 
-            Path file = Paths.get(filePath);
-            InputStream inStream = new BufferedInputStream(Files.newInputStream(file));
-            BufferedReader inReader = new BufferedReader(new InputStreamReader(inStream));    
-
-            //Parse the file line by line until EOF is reached. 
-            while ((input = inReader.readLine()) != null)
+            //The rows are parsed in parallel but applied in file order so the waitlists are deterministic
+            for (CatalogLoader.RentalRequest request : CatalogLoader.loadRentalRequests(Paths.get("Students.txt")))
             {
                 Student student;
                 Book rentedBook;
-                String studentName;
-
-                parsedTokens = input.trim().split("\t");
-                studentName = parsedTokens[0].replace("\"", "");
+                String studentName = request.getStudentName();
 
                 if (!studentListCreated)
                 {
@@ -178,18 +291,17 @@ public class Driver {
                     student = studentList.getElement(studentName);
                 }
 
-                if (parsedTokens[0].contains("\""))
+                if (request.isQuoted())
                 {
                     //Read in the book titles
-                    for (int i = 1; i < parsedTokens.length; i++) 
+                    for (String title : request.getTitles()) 
                     {
-                        //f the string is not blank it represents a book
-                        if (!parsedTokens[i].isBlank())
+                        rentedBook = bookList.getElement(title);
+                        student.rentBook(rentedBook);
+                        
+                        // A bit costly, but it ensures that there are no duplicate entries
+                        synchronized (rentedBookList)
                         {
-                            rentedBook = bookList.getElement(parsedTokens[i]);
-                            student.rentBook(rentedBook);
-                            
-                            // A bit costly, but it ensures that there are no duplicate entries
                             if (!rentedBookList.contains(rentedBook.getTitle())) 
                             {
                                 rentedBookList.append(rentedBook.getTitle(), rentedBook);
@@ -201,9 +313,10 @@ public class Driver {
                     studentList.append(student.getName(), student);
                 }
             }
-            inStream.close();
-            inReader.close();
             studentListCreated = true;
+            buildCoRentals();
+            LibraryMetrics.LOAD_RENTALS.stop(start);
+            saveRentalState(true);
         }
         catch (Exception e)
         {
@@ -245,10 +358,12 @@ public class Driver {
             else
             {
                 System.out.print("Please specify the title of the book you are returning >>");
-                bookTitle = input.nextLine();
-                bookToReturn = returningStudent.getRentedBookList().getElement(bookTitle);
+                bookTitle = input.nextLine().trim();
+                //The filter only rules out titles that are not in the catalog. The book itself is the
+                //copy the student rented, which may not be the first book with that title.
+                bookToReturn = titleFilter.mightContain(bookTitle) ? returningStudent.getRentedBook(bookTitle) : null;
 
-                //If the book does not exist
+                //If the student is not renting a book with that title
                 if (bookToReturn == null) 
                 {
                     throw new Exception("The student has not checked out that book");
@@ -256,11 +371,12 @@ public class Driver {
                 else
                 {
                    returningStudent.returnBook(bookToReturn);
-                   //If nobody is currently renting, remove it from the list
-                   if (bookToReturn.getRenterList().getElementCount() == 0)
+                   //If nobody is currently renting, remove it from the list. The server updates it too.
+                   synchronized (rentedBookList)
                    {
-                        rentedBookList.removeElement(bookTitle);
+                        if (bookToReturn.getRenterCount() == 0) {rentedBookList.removeElement(bookToReturn.getTitle());}
                    }
+                   saveRentalState(false);
                 }
             }          
         }
@@ -287,7 +403,7 @@ public class Driver {
 
             System.out.print("Please specify the title of the book you are inquiring for >>");
             bookTitle = input.nextLine().trim();
-            bookToView = bookList.getElement(bookTitle);
+            bookToView = findBook(bookTitle);
 
             if (bookToView == null)
             {
@@ -304,6 +420,42 @@ public class Driver {
         }
     }
 
+    /**
+     * Finds a book by its title. If there is no exact match, the title is treated as a prefix: 
+     * a single matching book is returned and several matches are listed as suggestions.
+     * @param title The full title or the beginning of the title
+     * @return The matching book, or null if no title starts with the text entered
+     * @throws Exception If more than one title starts with the text entered
+     */
+    public static Book findBook(String title) throws Exception
+    {
+        long start = LibraryMetrics.FIND_BOOK.start();
+        try
+        {
+            //The filter skips the exact lookup for most titles that are not in the catalog
+            Book book = titleFilter.lookup(title);
+            if (book != null) {return book;}
+
+            ArrayList<Book> matches = title.isEmpty() ? new ArrayList<>() : titleIndex.prefixSearch(title, SUGGESTION_LIMIT);
+            if (matches.size() == 1) {return matches.get(0);}
+            if (matches.size() > 1)
+            {
+                StringBuilder message = new StringBuilder("More than one book starts with \"" + title + "\". Did you mean:\n");
+                for (Book match : matches)
+                {
+                    message.append("  ").append(match.getTitle()).append("\n");
+                }
+                throw new Exception(message.toString());
+            }
+            LibraryMetrics.LOOKUP_MISSES.increment();
+            return null;
+        }
+        finally
+        {
+            LibraryMetrics.FIND_BOOK.stop(start);
+        }
+    }
+
     /**
      * Prints the information of every book found in the library
      */
@@ -313,7 +465,7 @@ public class Driver {
         {
             if (bookListCreated)
             {
-                bookList.print();
+                consoleReport.writeBooks(bookList.snapshot());
             }
             else
             {
@@ -326,6 +478,44 @@ public class Driver {
         }
     }
 
+    /**
+     * Writes every book and its renters to a file without opening the menu. The rentals
+     * are restored from the journal first, if there is one.
+     * @param fileName The name of the file to write
+     * @param formatName The format of the report: text, tsv or json
+     */
+    public static void exportBookList(String fileName, String formatName)
+    {
+        try
+        {
+            ReportWriter.Format format;
+            try
+            {
+                format = ReportWriter.Format.valueOf(formatName.toUpperCase(Locale.ROOT));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new Exception("Unknown report format: " + formatName + ". Use text, tsv or json.");
+            }
+
+            openJournal();
+            createBookList();
+            if (bookListCreated)
+            {
+                try (ReportWriter writer = ReportWriter.toFile(Paths.get(fileName), format))
+                {
+                    writer.writeBooks(bookList.snapshot());
+                }
+                System.out.println("Wrote " + bookList.getElementCount() + " books to " + fileName);
+            }
+            closeJournal();
+        }
+        catch (Exception e)
+        {
+            System.out.println(e.getMessage());
+        }
+    }
+
     /**
      * Prints the list of all books that are currently being rented by 
      * students.
@@ -336,7 +526,7 @@ public class Driver {
         {
             if (studentListCreated)
             {
-                rentedBookList.print();
+                consoleReport.writeBooks(rentedBookList.snapshot());
             }
             else
             {
@@ -363,7 +553,7 @@ public class Driver {
 
                 System.out.print("Please specify the title of the book you are inquiring for >> ");
                 title = input.nextLine().trim();
-                toView = bookList.getElement(title);
+                toView = findBook(title);
 
                 if (toView != null)
                 {
@@ -1,7 +1,15 @@
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 /**
- * An implementation of a Linked List
+ * An implementation of a doubly Linked List
+ *
+ * A list can keep a pool of the nodes it removed and reuse them for later appends, so a list
+ * that is appended to and removed from at a steady size, like a waitlist, allocates nothing.
+ * Nodes returned by append must not be used once they have been removed from a pooled list.
  * @param <E> The object type to be used
  * @author Dillon Evans
  */
@@ -13,8 +21,10 @@ public class ElementList<E> implements Iterable<E>
     public class Node
     {
         private E value;
-        private Node next;
+        private Node next, previous;
         private String elementName;
+        private int hash;
+        private boolean linked = false;
 
         /**
          * Creates a new Node object
@@ -26,8 +36,15 @@ public class ElementList<E> implements Iterable<E>
             this.value = value;
             this.elementName = elementName;
             this.next = null;
+            this.previous = null;
         }
         
+        /**
+         * Returns the list the node was created for
+         * @return The list the node was created for
+         */
+        private ElementList<E> getList() {return ElementList.this;}
+
         /**
          * Returns the element name of the node
          * @return The element name of node
@@ -46,77 +63,373 @@ public class ElementList<E> implements Iterable<E>
          */
         public Node getNext() {return next;}
 
+        /**
+         * Returns the previous node
+         * @return The previous node
+         */
+        public Node getPrevious() {return previous;}
+
         /**
          * Sets the next node 
          * @param next The next node
          */
         public void setNext(Node next) {this.next = next;}
 
+        /**
+         * Sets the previous node
+         * @param previous The previous node
+         */
+        public void setPrevious(Node previous) {this.previous = previous;}
+
         /**
          * Sets the value of the element
          * @param value The value of the element
          */
-        public void setValue(E value) {this.value = value;}
+        public void setValue(E value) 
+        {
+            if (linked) {beginWrite();}
+            this.value = value;
+            if (linked) {endWrite();}
+        }
 
         /**
          * Sets the name of the element
          * @param elementName The name of the element
          */
-        public void setElementName(String elementName) {this.elementName = elementName;}
+        public void setElementName(String elementName) 
+        {
+            if (linked)
+            {
+                unindex(this);
+                this.elementName = elementName;
+                index(this);
+            }
+            else {this.elementName = elementName;}
+        }
     }
 
     Node head, tail;
     int elementCount = 0;
+
+    //Open addressing table of the first node with each case-folded name, allocated on the
+    //first append. Names are folded while they are hashed and compared, so nothing is allocated.
+    private Node[] nameIndex;
+    private int indexedCount = 0, duplicateCount = 0;
+
+    //Removed nodes kept for reuse, linked through their previous field
+    private Node freeNodes;
+    private int freeCount = 0, poolCapacity = 0;
+
+    //Odd while a writer is modifying the list, incremented twice per modification
+    private volatile long version = 0;
+    private volatile Snapshot cachedSnapshot;
+
+    /**
+     * An immutable copy of the elements taken at a given version of the list
+     */
+    private class Snapshot
+    {
+        private long version;
+        private List<E> values;
+
+        /**
+         * Creates a new Snapshot object
+         * @param version The version of the list the elements were copied at
+         * @param values The elements of the list
+         */
+        private Snapshot(long version, List<E> values)
+        {
+            this.version = version;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Creates a new empty list that does not reuse its nodes
+     */
+    public ElementList() {}
+
+    /**
+     * Creates a new empty list that keeps up to the given number of removed nodes for reuse
+     * @param nodePoolCapacity The most removed nodes to keep
+     */
+    public ElementList(int nodePoolCapacity) {this.poolCapacity = Math.max(0, nodePoolCapacity);}
+
+    /**
+     * Marks the start of a modification. Writers must already be serialized, for example by
+     * the monitor of the Book that owns the list.
+     */
+    private void beginWrite()
+    {
+        version++;
+        //Keep the modification from becoming visible before the version turns odd
+        VarHandle.storeStoreFence();
+    }
+
+    /**
+     * Marks the end of a modification, publishing it to snapshot readers
+     */
+    private void endWrite() {version++;}
+    
+    /**
+     * Returns the hash of an element name. Names are folded one character at a time so
+     * that lookups remain case insensitive.
+     * @param elementName The name of the element
+     * @return The hash of the case-folded name
+     */
+    static int foldedHash(String elementName)
+    {
+        if (elementName == null) {return 0;}
+        int hash = 0;
+        for (int i = 0; i < elementName.length(); i++)
+        {
+            hash = 31 * hash + Character.toLowerCase(elementName.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns true if two element names are equal ignoring case
+     * @param first The first name
+     * @param second The second name
+     * @return True if the names are equal once case folded
+     */
+    static boolean foldedEquals(String first, String second)
+    {
+        if (first == null || second == null) {return first == second;}
+        if (first.length() != second.length()) {return false;}
+        for (int i = 0; i < first.length(); i++)
+        {
+            char a = first.charAt(i), b = second.charAt(i);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {return false;}
+        }
+        return true;
+    }
+
+    /**
+     * Returns the slot of the index holding the node for a name
+     * @param elementName The name of the element
+     * @param hash The folded hash of the name
+     * @return The slot, or -1 if no node holds the name
+     */
+    private int findSlot(String elementName, int hash)
+    {
+        if (nameIndex == null) {return -1;}
+        int mask = nameIndex.length - 1;
+        for (int slot = hash & mask; nameIndex[slot] != null; slot = (slot + 1) & mask)
+        {
+            Node node = nameIndex[slot];
+            if (node.hash == hash && foldedEquals(node.elementName, elementName)) {return slot;}
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a node to the name index. If another node already holds the name, the 
+     * earlier node keeps the index entry so lookups still return the first match.
+     * @param node The node to index
+     */
+    private void index(Node node)
+    {
+        node.linked = true;
+        node.hash = foldedHash(node.elementName);
+        if (findSlot(node.elementName, node.hash) >= 0)
+        {
+            duplicateCount++;
+            return;
+        }
+
+        //Keep the table at most half full so probes stay short
+        if (nameIndex == null) {nameIndex = newIndex(16);}
+        if (++indexedCount * 2 > nameIndex.length)
+        {
+            Node[] old = nameIndex;
+            nameIndex = newIndex(old.length * 2);
+            for (Node indexed : old)
+            {
+                if (indexed != null) {place(indexed);}
+            }
+        }
+        place(node);
+    }
+
+    /**
+     * Returns an empty index table
+     * @param capacity The number of slots, a power of two
+     * @return The table
+     */
+    @SuppressWarnings("unchecked")
+    private Node[] newIndex(int capacity) {return (Node[])new ElementList<?>.Node[capacity];}
+
+    /**
+     * Stores a node in the first empty slot of its probe sequence
+     * @param node The node to store
+     */
+    private void place(Node node)
+    {
+        int mask = nameIndex.length - 1, slot = node.hash & mask;
+        while (nameIndex[slot] != null) {slot = (slot + 1) & mask;}
+        nameIndex[slot] = node;
+    }
+
+    /**
+     * Removes a node from the name index. When the node was indexed and the list 
+     * holds duplicate names, the next node with the same name takes its place.
+     * @param node The node to remove from the index
+     */
+    private void unindex(Node node)
+    {
+        node.linked = false;
+        int slot = findSlot(node.elementName, node.hash);
+        if (slot < 0 || nameIndex[slot] != node)
+        {
+            //The node is a duplicate that was never indexed
+            if (duplicateCount > 0) {duplicateCount--;}
+            return;
+        }
+
+        //Empty the slot, shifting later nodes of the same probe sequence back so lookups still find them
+        int mask = nameIndex.length - 1, hole = slot;
+        for (int next = (hole + 1) & mask; nameIndex[next] != null; next = (next + 1) & mask)
+        {
+            int home = nameIndex[next].hash & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask))
+            {
+                nameIndex[hole] = nameIndex[next];
+                hole = next;
+            }
+        }
+        nameIndex[hole] = null;
+        indexedCount--;
+
+        //Duplicates are rare, so only then fall back to a scan for the next match
+        if (duplicateCount > 0)
+        {
+            for (Node current = node.getNext(); current != null; current = current.getNext())
+            {
+                if (current != node && current.hash == node.hash && foldedEquals(current.elementName, node.elementName))
+                {
+                    indexedCount++;
+                    place(current);
+                    duplicateCount--;
+                    return;
+                }
+            }
+        }
+    }
     
     /**
      * Adds an element to the end of the list
      * @param name The name of the element for indexing
      * @param element The element to insert at the end of the list
+     * @return The node holding the element, which can later be passed to removeNode
      */
-    public void append(String name, E element)
+    public Node append(String name, E element)
     {
-        Node newElement = new Node(name, element);
+        Node newElement = freeNodes;
+        if (newElement != null)
+        {
+            freeNodes = newElement.previous;
+            freeCount--;
+            newElement.previous = null;
+            newElement.value = element;
+            newElement.elementName = name;
+        }
+        else {newElement = new Node(name, element);}
 
+        beginWrite();
         if (head == null)
         {
-            head = tail = new Node(name, element);
+            head = tail = newElement;
         }
         else
         {
+           newElement.setPrevious(tail);
            tail.setNext(newElement);
            tail = tail.getNext();
         }
+        index(newElement);
         elementCount++;
+        endWrite();
+        return newElement;
     }
 
     /**
-     * Prints every element in the list
+     * Prints every element in the list. A snapshot is printed, so a concurrent 
+     * modification cannot cause elements to be skipped or printed twice.
      */
     public void print()
     {
-        for (E element : this)
+        for (E element : snapshot())
         {
             System.out.printf("%s\n", element);
         }
     }
 
     /**
-     * Returns a specific element from the list based on its name
-     * @param elementName The name of the element to search for
-     * @return
+     * Returns a consistent, immutable copy of the elements of the list. Readers never take a 
+     * lock: the list is copied optimistically and the copy is retried if a writer modified 
+     * the list meanwhile. The copy is cached until the next modification, so repeated 
+     * readers of an unchanged list share it.
+     * @return The elements of the list in order
      */
-    public E getElement(String elementName)
+    public List<E> snapshot()
     {
-        Node current = head;
-        while (current != null)
+        for (int attempt = 1; ; attempt++)
         {
-            if(current.elementName.equalsIgnoreCase(elementName))
+            long before = version;
+            Snapshot cached = cachedSnapshot;
+            if (cached != null && cached.version == before) {return cached.values;}
+
+            if ((before & 1) == 0)
             {
-                return current.getValue();
+                //A racing writer can recycle a node the walk is on and link it back into the list,
+                //so a walk that passes more nodes than the list held is abandoned and retried
+                int limit = Math.max(elementCount, 0);
+                ArrayList<E> copy = new ArrayList<>(limit);
+                Node current = head;
+                while (current != null && copy.size() < limit)
+                {
+                    copy.add(current.value);
+                    current = current.next;
+                }
+
+                //Keep the reads of the list from being reordered after the version check
+                VarHandle.acquireFence();
+                if (current == null && version == before)
+                {
+                    List<E> values = Collections.unmodifiableList(copy);
+                    cachedSnapshot = new Snapshot(before, values);
+                    return values;
+                }
             }
-            current = current.getNext();
+            if (attempt % 64 == 0) {Thread.yield();}
+            else {Thread.onSpinWait();}
         }
-        return null;
+    }
+
+    /**
+     * Returns a specific element from the list based on its name. The name is 
+     * resolved through the hash index, so the lookup is O(1) expected.
+     * @param elementName The name of the element to search for
+     * @return The element with the specified name or null
+     */
+    public E getElement(String elementName)
+    {
+        Node node = getNode(elementName);
+        return (node != null) ? node.getValue() : null;
+    }
+
+    /**
+     * Returns the first node with the specified name, ignoring case
+     * @param elementName The name of the element to search for
+     * @return The node with the specified name or null
+     */
+    public Node getNode(String elementName)
+    {
+        if (elementName == null) {return null;}
+        int slot = findSlot(elementName, foldedHash(elementName));
+        return (slot >= 0) ? nameIndex[slot] : null;
     }
 
     /**
@@ -125,14 +438,7 @@ public class ElementList<E> implements Iterable<E>
      */
     public E removeFirst()
     {
-        if (!isEmpty())
-        {
-            Node temp = head;
-            head = head.getNext();
-            elementCount--;
-            return temp.getValue();
-        }
-        return null;
+        return (!isEmpty()) ? removeNode(head) : null;
     }
 
     /**
@@ -141,53 +447,54 @@ public class ElementList<E> implements Iterable<E>
      */
     public E removeLast()
     {
-        if (!isEmpty())
-        {
-            Node current = head, temp = current;
-            while (current != tail)
-            {
-                temp = current;
-                current = current.getNext();
-            }
-            tail = temp;
-            tail.setNext(null);
-            elementCount--;
-            return current.getValue();
-        }
-        else
-        {
-            return null;
-        }
+        return (!isEmpty()) ? removeNode(tail) : null;
     }
 
     /**
-     * Removes the element of the list with the specified name
+     * Removes the element of the list with the specified name, ignoring case. 
+     * Names that are not present are rejected by the index without a scan.
      * @param elementName The name of the element to find
      * @return The value of the specified element
      */
     public E removeElement(String elementName)
     {
-        if (!isEmpty())
+        Node target = getNode(elementName);
+        return (target != null) ? removeNode(target) : null;
+    }
+
+    /**
+     * Unlinks a node returned by append from the list in O(1)
+     * @param node The node to remove
+     * @return The value stored in the node, or null if the node is no longer in the list
+     */
+    public E removeNode(Node node)
+    {
+        if (node == null || !node.linked || node.getList() != this) {return null;}
+
+        //Unindex first, the duplicate lookup needs the node's links intact
+        beginWrite();
+        unindex(node);
+        if (node.getPrevious() != null) {node.getPrevious().setNext(node.getNext());}
+        else {head = node.getNext();}
+        if (node.getNext() != null) {node.getNext().setPrevious(node.getPrevious());}
+        else {tail = node.getPrevious();}
+
+        node.setNext(null);
+        node.setPrevious(null);
+        elementCount--;
+        E value = node.getValue();
+
+        //A pooled node keeps a null next until it is appended again
+        if (freeCount < poolCapacity)
         {
-            if (elementName.equals(head.getElementName())) {return removeFirst();}
-            else if (elementName.equals(tail.getElementName())) {return removeLast();}
-            else {
-                Node current = head;
-                Node temp = current;
-                while (current != null)
-                {
-                    if (current.getElementName().equals(elementName))
-                    {
-                        temp.setNext(current.getNext());
-                        elementCount--;
-                        return current.getValue();
-                    }
-                    temp = current;
-                    current = current.getNext();
-                }
-            }
+            node.value = null;
+            node.elementName = null;
+            node.previous = freeNodes;
+            freeNodes = node;
+            freeCount++;
         }
-        return null;
+        endWrite();
+        return value;
     }
 
     /**
@@ -0,0 +1,149 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Interns names to dense integer ids. Every distinct name, ignoring case, gets the next id the
+ * first time it is seen and keeps it for the life of the registry, so code past the lookup can
+ * compare and index by int instead of comparing strings. Names are folded one character at a
+ * time like the ElementList index, so two names share an id exactly when ElementList treats
+ * them as the same element.
+ *
+ * Interning is synchronized, while finding the id of a name never takes a lock: ids are
+ * published to the table with a release store after their name, and a resized table is
+ * published through a volatile field.
+ * @author Dillon Evans
+ */
+public class IdRegistry
+{
+    private static final IdRegistry TITLES = new IdRegistry(), STUDENTS = new IdRegistry();
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final int NONE = -1;
+
+    /**
+     * The arrays of the registry, replaced as a whole when it grows
+     */
+    private static class Table
+    {
+        private final int[] slots;
+        private final String[] names;
+        private final int[] hashes;
+
+        /**
+         * Creates a new Table object
+         * @param slotCount The number of hash slots, a power of two
+         * @param capacity The number of ids the table can hold
+         */
+        private Table(int slotCount, int capacity)
+        {
+            slots = new int[slotCount];
+            Arrays.fill(slots, NONE);
+            names = new String[capacity];
+            hashes = new int[capacity];
+        }
+    }
+
+    private volatile Table table = new Table(32, 16);
+    private volatile int size = 0;
+
+    /**
+     * Returns the registry of book titles
+     * @return The registry of book titles
+     */
+    public static IdRegistry titles() {return TITLES;}
+
+    /**
+     * Returns the registry of student names
+     * @return The registry of student names
+     */
+    public static IdRegistry students() {return STUDENTS;}
+
+    /**
+     * Returns the id of a name, assigning the next id if the name is new
+     * @param name The name
+     * @return The id of the name, or -1 if the name is null
+     */
+    public synchronized int intern(String name)
+    {
+        if (name == null) {return NONE;}
+        int hash = ElementList.foldedHash(name);
+        int id = find(table, name, hash);
+        if (id != NONE) {return id;}
+
+        id = size;
+        Table current = table;
+        if (id == current.names.length || (id + 1) * 2 > current.slots.length)
+        {
+            //Build the larger table completely before publishing it
+            Table grown = new Table(current.slots.length * 2, current.names.length * 2);
+            System.arraycopy(current.names, 0, grown.names, 0, id);
+            System.arraycopy(current.hashes, 0, grown.hashes, 0, id);
+            for (int i = 0; i < id; i++) {grown.slots[emptySlot(grown, grown.hashes[i])] = i;}
+            current = grown;
+        }
+        current.names[id] = name;
+        current.hashes[id] = hash;
+        SLOT.setRelease(current.slots, emptySlot(current, hash), id);
+        table = current;
+        size = id + 1;
+        return id;
+    }
+
+    /**
+     * Returns the id of a name without assigning one
+     * @param name The name
+     * @return The id of the name, or -1 if the name has not been interned
+     */
+    public int find(String name)
+    {
+        return (name != null) ? find(table, name, ElementList.foldedHash(name)) : NONE;
+    }
+
+    /**
+     * Returns the name an id was assigned to, as it was first interned
+     * @param id The id
+     * @return The name
+     */
+    public String nameOf(int id)
+    {
+        if (id < 0 || id >= size) {throw new IllegalArgumentException("Unknown id " + id);}
+        return table.names[id];
+    }
+
+    /**
+     * Returns the number of ids assigned. Every id is below this number.
+     * @return The number of ids assigned
+     */
+    public int size() {return size;}
+
+    /**
+     * Looks up a name in a table
+     * @param current The table
+     * @param name The name
+     * @param hash The folded hash of the name
+     * @return The id of the name, or -1 if it is not in the table
+     */
+    private static int find(Table current, String name, int hash)
+    {
+        int mask = current.slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask)
+        {
+            int id = (int)SLOT.getAcquire(current.slots, slot);
+            if (id == NONE) {return NONE;}
+            if (current.hashes[id] == hash && ElementList.foldedEquals(current.names[id], name)) {return id;}
+        }
+    }
+
+    /**
+     * Returns the first empty slot of the probe sequence of a hash
+     * @param current The table
+     * @param hash The hash
+     * @return The slot
+     */
+    private static int emptySlot(Table current, int hash)
+    {
+        int mask = current.slots.length - 1, slot = hash & mask;
+        while (current.slots[slot] != NONE) {slot = (slot + 1) & mask;}
+        return slot;
+    }
+}
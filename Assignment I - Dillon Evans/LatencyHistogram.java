@@ -0,0 +1,123 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds. Every power of two is split into four
+ * buckets, so a percentile is reported within 25% of the recorded value while the whole range
+ * of a long fits in a few hundred buckets. Recording is a bucket computation and an atomic add.
+ * @author Dillon Evans
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency
+     * @param nanos The latency in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        if (value > max.get()) {max.accumulateAndGet(value, Math::max);}
+    }
+
+    /**
+     * Adds every latency recorded by another histogram to this one
+     * @param other The histogram to add
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            long count = other.counts.get(i);
+            if (count != 0) {counts.addAndGet(i, count);}
+        }
+        long otherMax = other.getMax();
+        if (otherMax > max.get()) {max.accumulateAndGet(otherMax, Math::max);}
+    }
+
+    /**
+     * Returns the bucket a value is counted in
+     * @param value The non-negative value
+     * @return The index of the bucket
+     */
+    private static int bucketOf(long value)
+    {
+        if (value < SUB_BUCKETS * 2) {return (int)value;}
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value counted in a bucket
+     * @param bucket The index of the bucket
+     * @return The highest value of the bucket
+     */
+    private static long highestValueOf(int bucket)
+    {
+        if (bucket < SUB_BUCKETS * 2) {return bucket;}
+        int exponent = bucket / SUB_BUCKETS + 1;
+        long lowest = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Returns the number of recorded latencies
+     * @return The number of recorded latencies
+     */
+    public long getCount()
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {total += counts.get(i);}
+        return total;
+    }
+
+    /**
+     * Returns the highest recorded latency
+     * @return The highest recorded latency in nanoseconds
+     */
+    public long getMax() {return max.get();}
+
+    /**
+     * Returns an upper bound of the latency below which the given fraction of the recorded
+     * latencies fall. Latencies recorded while this runs may or may not be included.
+     * @param percentile The percentile, between 0 and 100
+     * @return The latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {return 0;}
+
+        long rank = Math.max(1, (long)Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += snapshot[i];
+            if (seen >= rank) {return Math.min(highestValueOf(i), getMax());}
+        }
+        return getMax();
+    }
+
+    /**
+     * Clears every recorded latency
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++) {counts.set(i, 0);}
+        max.set(0);
+    }
+}
@@ -0,0 +1,371 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live metrics of the library: operation counts, latency histograms and waitlist depth gauges.
+ * They are exposed through JMX as library:type=LibraryMetrics and can be dumped to a file
+ * periodically.
+ *
+ * Recording is cheap enough to leave on. Every operation increments a striped counter, but only
+ * one in SAMPLE_RATE operations is timed, since reading the clock twice costs more than the
+ * rest of the recording. Set -Dlibrary.metrics.sampleRate to change the rate, which is rounded
+ * up to a power of two, or -Dlibrary.metrics=false to turn recording off entirely.
+ * @author Dillon Evans
+ */
+public class LibraryMetrics implements LibraryMetricsMXBean
+{
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("library.metrics"));
+    public static final int SAMPLE_RATE = sampleRate();
+
+    /**
+     * Counts an operation and samples its latency
+     */
+    public static class Timer
+    {
+        private LongAdder count = new LongAdder();
+        private LatencyHistogram latency = new LatencyHistogram();
+        private int sampleMask;
+
+        /**
+         * Creates a new Timer
+         * @param sampleRate One in this many operations is timed, a power of two
+         */
+        private Timer(int sampleRate)
+        {
+            this.sampleMask = sampleRate - 1;
+        }
+
+        /**
+         * Counts the start of an operation
+         * @return The start time if the operation is sampled, otherwise 0
+         */
+        public long start()
+        {
+            if (!ENABLED) {return 0;}
+            count.increment();
+            return ((ThreadLocalRandom.current().nextInt() & sampleMask) == 0) ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Records the latency of a sampled operation
+         * @param start The value returned by start
+         */
+        public void stop(long start)
+        {
+            if (start != 0) {latency.record(System.nanoTime() - start);}
+        }
+
+        /**
+         * Returns a summary of the operation
+         * @return The summary
+         */
+        public Summary summarize()
+        {
+            return new Summary(count.sum(), latency.getCount(), latency.getPercentile(50),
+                latency.getPercentile(90), latency.getPercentile(99), latency.getMax());
+        }
+
+        /**
+         * Clears the count and the latencies
+         */
+        private void reset()
+        {
+            count.reset();
+            latency.reset();
+        }
+    }
+
+    /**
+     * A point in time summary of a Timer
+     */
+    public static class Summary
+    {
+        private long count, samples, p50, p90, p99, max;
+
+        /**
+         * Creates a new Summary object
+         * @param count The number of operations
+         * @param samples The number of timed operations
+         * @param p50 The median latency
+         * @param p90 The 90th percentile latency
+         * @param p99 The 99th percentile latency
+         * @param max The highest latency
+         */
+        public Summary(long count, long samples, long p50, long p90, long p99, long max)
+        {
+            this.count = count;
+            this.samples = samples;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of operations
+         * @return The number of operations
+         */
+        public long getCount() {return count;}
+
+        /**
+         * Returns the number of timed operations
+         * @return The number of timed operations
+         */
+        public long getSamples() {return samples;}
+
+        /**
+         * Returns the median latency
+         * @return The median latency in nanoseconds
+         */
+        public long getP50() {return p50;}
+
+        /**
+         * Returns the 90th percentile latency
+         * @return The 90th percentile latency in nanoseconds
+         */
+        public long getP90() {return p90;}
+
+        /**
+         * Returns the 99th percentile latency
+         * @return The 99th percentile latency in nanoseconds
+         */
+        public long getP99() {return p99;}
+
+        /**
+         * Returns the highest latency
+         * @return The highest latency in nanoseconds
+         */
+        public long getMax() {return max;}
+
+        @Override
+        public String toString()
+        {
+            return "count=" + count + " samples=" + samples + " p50=" + p50 + "ns p90=" + p90
+                + "ns p99=" + p99 + "ns max=" + max + "ns";
+        }
+    }
+
+    /**
+     * Counts events that have no latency
+     */
+    public static class Counter
+    {
+        private LongAdder count = new LongAdder();
+
+        /**
+         * Counts an event
+         */
+        public void increment()
+        {
+            if (ENABLED) {count.increment();}
+        }
+
+        /**
+         * Returns the number of events
+         * @return The number of events
+         */
+        public long get() {return count.sum();}
+    }
+
+    public static final Timer CHECK_OUT = new Timer(SAMPLE_RATE);
+    public static final Timer CHECK_IN = new Timer(SAMPLE_RATE);
+    public static final Timer FIND_BOOK = new Timer(SAMPLE_RATE);
+    public static final Timer LOAD_BOOKS = new Timer(1);
+    public static final Timer LOAD_RENTALS = new Timer(1);
+    public static final Counter WAITLISTED = new Counter();
+    public static final Counter PROMOTIONS = new Counter();
+    public static final Counter LOOKUP_MISSES = new Counter();
+    public static final Counter TITLE_FILTER_REJECTS = new Counter();
+    public static final Counter TITLE_FILTER_FALSE_POSITIVES = new Counter();
+
+    private static final LibraryMetrics INSTANCE = new LibraryMetrics();
+
+    //The waitlist gauges, kept current by Book as its waitlist grows and shrinks
+    private static final LongAdder waitlistDepth = new LongAdder();
+    private static final Set<Book> waitlistedBooks = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService dumper;
+
+    /**
+     * Returns the sampling rate from the library.metrics.sampleRate property
+     * @return The sampling rate rounded up to a power of two, 64 by default
+     */
+    private static int sampleRate()
+    {
+        int rate = 64;
+        try
+        {
+            rate = Integer.parseInt(System.getProperty("library.metrics.sampleRate", "64").trim());
+        }
+        catch (NumberFormatException e)
+        {
+            //Keep the default
+        }
+        rate = Math.max(1, Math.min(rate, 1 << 30));
+        return (Integer.bitCount(rate) == 1) ? rate : Integer.highestOneBit(rate) << 1;
+    }
+
+    /**
+     * Returns the metrics of this JVM
+     * @return The metrics
+     */
+    public static LibraryMetrics getInstance() {return INSTANCE;}
+
+    /**
+     * Updates the waitlist gauges after students join or leave a book's waitlist. Called
+     * while the book's monitor is held, so the changes to one book are recorded in order.
+     * @param book The book whose waitlist changed
+     * @param change The number of students that joined, negative if they left
+     * @param depth The number of students on the waitlist after the change
+     */
+    public static void waitlistChanged(Book book, int change, int depth)
+    {
+        if (!ENABLED) {return;}
+        waitlistDepth.add(change);
+        if (depth > 0) {waitlistedBooks.add(book);}
+        else {waitlistedBooks.remove(book);}
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. Registering twice has no effect.
+     * @throws JMException If the metrics could not be registered
+     */
+    public static synchronized void register() throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("library:type=LibraryMetrics");
+        if (!server.isRegistered(name)) {server.registerMBean(INSTANCE, name);}
+    }
+
+    /**
+     * Appends the metrics report to a file periodically on a daemon thread
+     * @param file The file to append to
+     * @param periodSeconds The number of seconds between reports
+     */
+    public static synchronized void startDump(Path file, long periodSeconds)
+    {
+        if (dumper != null) {return;}
+        dumper = Executors.newSingleThreadScheduledExecutor(task ->
+        {
+            Thread thread = new Thread(task, "library-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() ->
+        {
+            try
+            {
+                String report = "[" + LocalDateTime.now() + "]\n" + INSTANCE.report() + "\n";
+                Files.write(file, report.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            catch (IOException e)
+            {
+                //A failed dump is skipped, the next one tries again
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public Summary getCheckOut() {return CHECK_OUT.summarize();}
+
+    @Override
+    public Summary getCheckIn() {return CHECK_IN.summarize();}
+
+    @Override
+    public Summary getFindBook() {return FIND_BOOK.summarize();}
+
+    @Override
+    public Summary getLoadBooks() {return LOAD_BOOKS.summarize();}
+
+    @Override
+    public Summary getLoadRentals() {return LOAD_RENTALS.summarize();}
+
+    @Override
+    public long getWaitlistedCount() {return WAITLISTED.get();}
+
+    @Override
+    public long getPromotionCount() {return PROMOTIONS.get();}
+
+    @Override
+    public long getLookupMissCount() {return LOOKUP_MISSES.get();}
+
+    @Override
+    public long getTitleFilterRejectCount() {return TITLE_FILTER_REJECTS.get();}
+
+    @Override
+    public long getTitleFilterFalsePositiveCount() {return TITLE_FILTER_FALSE_POSITIVES.get();}
+
+    @Override
+    public double getTitleFilterFalsePositiveRate()
+    {
+        long falsePositives = getTitleFilterFalsePositiveCount(), negatives = falsePositives + getTitleFilterRejectCount();
+        return (negatives == 0) ? 0 : (double)falsePositives / negatives;
+    }
+
+    @Override
+    public Map<String, Integer> getWaitlistDepths()
+    {
+        //Only the books with students waiting are visited, not the whole catalog
+        Map<String, Integer> depths = new TreeMap<>();
+        for (Book book : waitlistedBooks)
+        {
+            int depth = book.getWaitlistDepth();
+            if (depth > 0) {depths.put(book.getTitle(), depth);}
+        }
+        return depths;
+    }
+
+    @Override
+    public long getTotalWaitlistDepth() {return waitlistDepth.sum();}
+
+    @Override
+    public String report()
+    {
+        StringBuilder report = new StringBuilder();
+        report.append("checkOut    ").append(getCheckOut()).append('\n');
+        report.append("checkIn     ").append(getCheckIn()).append('\n');
+        report.append("findBook    ").append(getFindBook()).append('\n');
+        report.append("loadBooks   ").append(getLoadBooks()).append('\n');
+        report.append("loadRentals ").append(getLoadRentals()).append('\n');
+        report.append("waitlisted=").append(getWaitlistedCount()).append(" promotions=").append(getPromotionCount())
+            .append(" lookupMisses=").append(getLookupMissCount()).append('\n');
+        report.append("titleFilter rejects=").append(getTitleFilterRejectCount()).append(" falsePositives=").append(getTitleFilterFalsePositiveCount())
+            .append(String.format(" falsePositiveRate=%.4f", getTitleFilterFalsePositiveRate())).append('\n');
+
+        Map<String, Integer> depths = getWaitlistDepths();
+        report.append("waitlistDepth total=").append(getTotalWaitlistDepth()).append(" books=").append(depths.size()).append('\n');
+        for (Map.Entry<String, Integer> depth : depths.entrySet())
+        {
+            report.append("  ").append(depth.getValue()).append('\t').append(depth.getKey()).append('\n');
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset()
+    {
+        for (Timer timer : new Timer[] {CHECK_OUT, CHECK_IN, FIND_BOOK, LOAD_BOOKS, LOAD_RENTALS}) {timer.reset();}
+        WAITLISTED.count.reset();
+        PROMOTIONS.count.reset();
+        LOOKUP_MISSES.count.reset();
+        TITLE_FILTER_REJECTS.count.reset();
+        TITLE_FILTER_FALSE_POSITIVES.count.reset();
+        //The waitlist gauges describe the waitlists as they are now, so they are not reset
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.Map;
+
+/**
+ * The management interface of LibraryMetrics, registered as library:type=LibraryMetrics.
+ * Latencies are in nanoseconds and are sampled, while the counts include every operation.
+ * @author Dillon Evans
+ */
+public interface LibraryMetricsMXBean
+{
+    /**
+     * Returns the latency summary of Book.checkOut
+     * @return The latency summary of Book.checkOut
+     */
+    LibraryMetrics.Summary getCheckOut();
+
+    /**
+     * Returns the latency summary of Book.checkIn
+     * @return The latency summary of Book.checkIn
+     */
+    LibraryMetrics.Summary getCheckIn();
+
+    /**
+     * Returns the latency summary of finding a book by title in the catalog
+     * @return The latency summary of Driver.findBook and the server's title lookups
+     */
+    LibraryMetrics.Summary getFindBook();
+
+    /**
+     * Returns the latency summary of loading Books.txt
+     * @return The latency summary of loading Books.txt
+     */
+    LibraryMetrics.Summary getLoadBooks();
+
+    /**
+     * Returns the latency summary of loading Students.txt and renting the requested books
+     * @return The latency summary of loading the rentals
+     */
+    LibraryMetrics.Summary getLoadRentals();
+
+    /**
+     * Returns the number of checkouts that put the student on the waitlist
+     * @return The number of waitlisted checkouts
+     */
+    long getWaitlistedCount();
+
+    /**
+     * Returns the number of check-ins that handed the book to the next student on the waitlist
+     * @return The number of waitlist promotions
+     */
+    long getPromotionCount();
+
+    /**
+     * Returns the number of title lookups that found no book in the catalog
+     * @return The number of lookup misses
+     */
+    long getLookupMissCount();
+
+    /**
+     * Returns the number of title lookups that TitleFilter answered without searching the catalog
+     * @return The number of rejected lookups
+     */
+    long getTitleFilterRejectCount();
+
+    /**
+     * Returns the number of title lookups that passed TitleFilter but were not in the catalog
+     * @return The number of false positives
+     */
+    long getTitleFilterFalsePositiveCount();
+
+    /**
+     * Returns the fraction of lookups of absent titles that passed TitleFilter
+     * @return The observed false positive rate
+     */
+    double getTitleFilterFalsePositiveRate();
+
+    /**
+     * Returns the waitlist depth of every book with a waitlist
+     * @return The waitlist depths keyed by title, in title order
+     */
+    Map<String, Integer> getWaitlistDepths();
+
+    /**
+     * Returns the number of students waiting across every book
+     * @return The total waitlist depth
+     */
+    long getTotalWaitlistDepth();
+
+    /**
+     * Returns the metrics as the text written by the periodic dump
+     * @return The metrics report
+     */
+    String report();
+
+    /**
+     * Clears every counter and histogram
+     */
+    void reset();
+}
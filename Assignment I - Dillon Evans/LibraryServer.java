@@ -0,0 +1,733 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An HTTP/JSON service over the library, bound to localhost. It serves the books and students
+ * loaded by the Driver, so rentals made through it are recorded in the same rental journal.
+ *
+ *   GET  /book?title=...               The details of a book, or the suggestions for a partial title
+ *   GET  /search?prefix=...&limit=10   Titles starting with the prefix
+ *   GET  /query?author=...&subject=... Titles of the books matching every field, see CatalogIndex.Field
+ *   GET  /range?field=...&from=...&to=... Titles of the books whose field falls between two values
+ *   GET  /student?name=...             The books a student is renting
+ *   GET  /students?limit=...           The names of the students
+ *   GET  /waitlist?title=...           The students waiting for a book
+ *   GET  /overdue?limit=100            The overdue rentals, earliest first, and the next rental to fall due
+ *   GET  /recommend?title=...&limit=10 The books most often rented by the students who rented a book
+ *   POST /rent?student=...&title=...   Rents a book, or adds the student to its waitlist
+ *   POST /return?student=...&title=... Returns a book, handing it to the next student on the waitlist
+ *   GET  /metrics                      The LibraryMetrics report
+ *
+ * The JDK server accepts and reads connections with a single selector thread, so idle
+ * keep-alive connections cost a socket and no thread. Requests are handled on a fixed pool.
+ * Every handler only takes the monitor of one book, and its renters in the usual book-then-student
+ * order, so the pool does not need to be larger than the number of cores.
+ *
+ * A rent or return is only answered once its journal event has been fsynced, so a client never
+ * sees an outcome that a crash could lose. Concurrent requests share one group commit. The
+ * journal is snapshotted and compacted every library.snapshotSeconds seconds (60 by default).
+ *
+ * The JDK server writes the headers and the body of a response separately, so with Nagle's
+ * algorithm every response waits about 40 ms for the client's delayed ACK of the headers. main
+ * turns it off with sun.net.httpserver.nodelay; a server created elsewhere should be launched with
+ * -Dsun.net.httpserver.nodelay=true.
+ *
+ * Usage: java LibraryServer [port] [threads]
+ * @author Dillon Evans
+ */
+public class LibraryServer
+{
+    public static final int DEFAULT_PORT = 8353;
+    private static final int BACKLOG = 16384;
+    private static final long DEFAULT_SNAPSHOT_SECONDS = 60;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private ElementList<Book> bookList, rentedBookList;
+    private ElementList<Student> studentList;
+    private TitleIndex<Book> titleIndex;
+    private CatalogIndex catalogIndex;
+    private TitleFilter titleFilter;
+    private CoRentalIndex coRentals;
+    private RentalJournal journal;
+    private ScheduledExecutorService snapshotter;
+
+    /**
+     * A request that could not be served
+     */
+    private static class HttpError extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+        private int status;
+
+        /**
+         * Creates a new HttpError object
+         * @param status The HTTP status code
+         * @param message The message returned to the client
+         */
+        private HttpError(int status, String message)
+        {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Handles a request with its query parameters and returns the JSON body of the response
+     */
+    private interface Endpoint
+    {
+        /**
+         * Serves a request
+         * @param query The decoded query parameters
+         * @return The JSON body of the response
+         * @throws HttpError If the request could not be served
+         */
+        String serve(Map<String, String> query) throws HttpError;
+    }
+
+    /**
+     * Creates a new LibraryServer. The lists must not be modified while the server is running,
+     * other than through Book.checkOut and Book.checkIn, and the rented list while holding its monitor.
+     * @param port The port to listen on, or 0 for any free port
+     * @param threads The number of request handling threads
+     * @param bookList The books in the library
+     * @param rentedBookList The books with at least one renter, kept current by rents and returns
+     * @param studentList The students in the library system
+     * @param titleIndex The index of the book titles
+     * @param titleFilter The filter of the book titles
+     * @param catalogIndex The index of the other fields of the books
+     * @param coRentals The co-rental index of the rentals
+     * @param journal The journal the rentals are recorded in, or null if there is none
+     * @throws IOException If the port could not be bound
+     */
+    public LibraryServer(int port, int threads, ElementList<Book> bookList, ElementList<Book> rentedBookList, ElementList<Student> studentList,
+        TitleIndex<Book> titleIndex, TitleFilter titleFilter, CatalogIndex catalogIndex, CoRentalIndex coRentals, RentalJournal journal) throws IOException
+    {
+        this.bookList = bookList;
+        this.rentedBookList = rentedBookList;
+        this.studentList = studentList;
+        this.titleIndex = titleIndex;
+        this.titleFilter = titleFilter;
+        this.catalogIndex = catalogIndex;
+        this.coRentals = coRentals;
+        this.journal = journal;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = task ->
+        {
+            Thread thread = new Thread(task, "library-http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = Executors.newFixedThreadPool(threads, factory);
+        server.setExecutor(executor);
+
+        route("/book", "GET", this::book);
+        route("/search", "GET", this::search);
+        route("/query", "GET", this::query);
+        route("/range", "GET", this::range);
+        route("/student", "GET", this::student);
+        route("/students", "GET", this::students);
+        route("/waitlist", "GET", this::waitlist);
+        route("/overdue", "GET", this::overdue);
+        route("/recommend", "GET", this::recommend);
+        route("/rent", "POST", this::rent);
+        route("/return", "POST", this::returnBook);
+        route("/metrics", "GET", query ->
+        {
+            StringBuilder out = new StringBuilder("{");
+            return ReportWriter.appendJsonField(out, "report", LibraryMetrics.getInstance().report()).append('}').toString();
+        });
+    }
+
+    /**
+     * The program entry point. Loads the library the same way the Driver menu does and serves it.
+     * @param args The port and the number of request handling threads
+     */
+    public static void main(String[] args)
+    {
+        try
+        {
+            int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+            int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {System.setProperty("sun.net.httpserver.nodelay", "true");}
+
+            Driver.startMetrics();
+            Driver.openJournal();
+            Driver.createBookList();
+            if (!Driver.bookListCreated) {throw new Exception("The library could not be loaded.");}
+            if (!Driver.studentListCreated) {Driver.rentBooks();}
+
+            LibraryServer library = new LibraryServer(port, threads, Driver.bookList, Driver.rentedBookList, Driver.studentList,
+                Driver.titleIndex, Driver.titleFilter, Driver.catalogIndex, Driver.coRentals, Driver.journal);
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+            {
+                library.stop();
+                Driver.closeJournal();
+            }));
+            library.start();
+            System.out.println("Serving " + Driver.bookList.getElementCount() + " books at http://localhost:" + library.getPort() + "/");
+        }
+        catch (NumberFormatException e)
+        {
+            System.out.println("Usage: java LibraryServer [port] [threads]");
+        }
+        catch (Exception e)
+        {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Starts accepting requests, and snapshotting the journal if there is one
+     */
+    public void start()
+    {
+        if (journal != null)
+        {
+            long period = Long.getLong("library.snapshotSeconds", DEFAULT_SNAPSHOT_SECONDS);
+            snapshotter = Executors.newSingleThreadScheduledExecutor(task ->
+            {
+                Thread thread = new Thread(task, "library-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotter.scheduleWithFixedDelay(this::snapshot, period, period, TimeUnit.SECONDS);
+        }
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits up to a second for the current ones to finish,
+     * and for a snapshot in progress to be written
+     */
+    public void stop()
+    {
+        server.stop(1);
+        executor.shutdown();
+        if (snapshotter == null) {return;}
+        snapshotter.shutdown();
+        try {snapshotter.awaitTermination(1, TimeUnit.MINUTES);}
+        catch (InterruptedException e) {Thread.currentThread().interrupt();}
+    }
+
+    /**
+     * Snapshots the rentals and compacts the journal, if anything was logged since the last snapshot
+     */
+    private void snapshot()
+    {
+        try
+        {
+            if (journal.getEventsSinceSnapshot() > 0) {journal.writeSnapshot(bookList, studentList);}
+        }
+        catch (IOException e)
+        {
+            //A failed snapshot is skipped, the journal still holds every event and the next one tries again
+            System.out.println("Warning: The rental information could not be saved. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the port the server is listening on
+     * @return The port the server is listening on
+     */
+    public int getPort() {return server.getAddress().getPort();}
+
+    /**
+     * Registers an endpoint
+     * @param path The path of the endpoint
+     * @param method The HTTP method the endpoint accepts
+     * @param endpoint The endpoint
+     */
+    private void route(String path, String method, Endpoint endpoint)
+    {
+        server.createContext(path, exchange ->
+        {
+            int status = 200;
+            String body;
+            try
+            {
+                if (!exchange.getRequestURI().getPath().equals(path)) {throw new HttpError(404, "Not found");}
+                if (!exchange.getRequestMethod().equals(method)) {throw new HttpError(405, "Use " + method);}
+                body = endpoint.serve(parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+            catch (HttpError e)
+            {
+                status = e.status;
+                body = error(e.getMessage());
+            }
+            catch (RuntimeException e)
+            {
+                status = 500;
+                body = error(String.valueOf(e.getMessage()));
+            }
+            respond(exchange, status, body);
+        });
+    }
+
+    /**
+     * Returns the body of an error response
+     * @param message The error message
+     * @return The body of the response
+     */
+    private static String error(String message)
+    {
+        return ReportWriter.appendJsonField(new StringBuilder("{"), "error", message).append('}').toString();
+    }
+
+    /**
+     * Sends a JSON response and closes the exchange, keeping the connection open for reuse
+     * @param exchange The exchange to respond to
+     * @param status The HTTP status code
+     * @param body The JSON body
+     * @throws IOException If the response could not be sent
+     */
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Decodes the parameters of a query string
+     * @param rawQuery The raw query string, or null
+     * @return The parameters by name
+     */
+    private static Map<String, String> parseQuery(String rawQuery)
+    {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {return query;}
+        for (String pair : rawQuery.split("&"))
+        {
+            int split = pair.indexOf('=');
+            String name = (split < 0) ? pair : pair.substring(0, split);
+            String value = (split < 0) ? "" : pair.substring(split + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    /**
+     * Returns a required query parameter
+     * @param query The query parameters
+     * @param name The name of the parameter
+     * @return The trimmed value of the parameter
+     * @throws HttpError If the parameter is missing
+     */
+    private static String require(Map<String, String> query, String name) throws HttpError
+    {
+        String value = query.get(name);
+        if (value == null || value.isBlank()) {throw new HttpError(400, "The " + name + " parameter is required");}
+        return value.trim();
+    }
+
+    /**
+     * Returns an optional numeric query parameter
+     * @param query The query parameters
+     * @param name The name of the parameter
+     * @param defaultValue The value if the parameter is missing
+     * @return The value of the parameter
+     * @throws HttpError If the parameter is not a positive number
+     */
+    private static int limit(Map<String, String> query, String name, int defaultValue) throws HttpError
+    {
+        String value = query.get(name);
+        if (value == null) {return defaultValue;}
+        try
+        {
+            int limit = Integer.parseInt(value.trim());
+            if (limit > 0) {return limit;}
+        }
+        catch (NumberFormatException e)
+        {
+            //Reported below
+        }
+        throw new HttpError(400, "The " + name + " parameter must be a positive number");
+    }
+
+    /**
+     * Looks up a book by its exact title, falling back to a unique title prefix like Driver.findBook
+     * @param title The title of the book
+     * @return The book
+     * @throws HttpError If no book or more than one book matches
+     */
+    private Book findBook(String title) throws HttpError
+    {
+        long start = LibraryMetrics.FIND_BOOK.start();
+        try
+        {
+            Book book = titleFilter.lookup(title);
+            if (book != null) {return book;}
+
+            ArrayList<Book> matches = titleIndex.prefixSearch(title, Driver.SUGGESTION_LIMIT);
+            if (matches.size() == 1) {return matches.get(0);}
+            if (matches.isEmpty())
+            {
+                LibraryMetrics.LOOKUP_MISSES.increment();
+                throw new HttpError(404, "The book \"" + title + "\" is not in the library");
+            }
+
+            StringBuilder message = new StringBuilder("More than one book starts with \"" + title + "\":");
+            for (Book match : matches) {message.append(' ').append(match.getTitle()).append(';');}
+            throw new HttpError(409, message.toString());
+        }
+        finally
+        {
+            LibraryMetrics.FIND_BOOK.stop(start);
+        }
+    }
+
+    /**
+     * Looks up a student by name, accepting the same forms as the Driver menu
+     * @param name The name of the student in the form last, first
+     * @return The student
+     * @throws HttpError If the student is not in the library system
+     */
+    private Student findStudent(String name) throws HttpError
+    {
+        String formatted = name.replace("\"", "");
+        if (!formatted.contains(",")) {formatted = formatted.replace(" ", ", ");}
+        Student student = studentList.getElement(formatted);
+        if (student == null) {throw new HttpError(404, "The student \"" + name + "\" is not present in our system");}
+        return student;
+    }
+
+    /**
+     * GET /book
+     * @param query The query parameters
+     * @return The book as JSON
+     * @throws HttpError If the book could not be found
+     */
+    private String book(Map<String, String> query) throws HttpError
+    {
+        Book book = findBook(require(query, "title"));
+        StringBuilder out = new StringBuilder(512);
+        synchronized (book)
+        {
+            ReportWriter.appendJson(out, book);
+        }
+        return out.toString();
+    }
+
+    /**
+     * GET /search
+     * @param query The query parameters
+     * @return The matching titles as a JSON array
+     * @throws HttpError If the limit is invalid
+     */
+    private String search(Map<String, String> query) throws HttpError
+    {
+        String prefix = query.getOrDefault("prefix", "");
+        StringBuilder out = new StringBuilder("[");
+        for (Book match : titleIndex.prefixSearch(prefix, limit(query, "limit", Driver.SUGGESTION_LIMIT)))
+        {
+            if (out.length() > 1) {out.append(", ");}
+            ReportWriter.appendJsonString(out, match.getTitle());
+        }
+        return out.append(']').toString();
+    }
+
+    /**
+     * GET /query. Every parameter other than limit names a field of CatalogIndex.Field.
+     * @param query The query parameters
+     * @return The titles of the matching books as a JSON array
+     * @throws HttpError If a parameter is not a field, there is no field or the limit is invalid
+     */
+    private String query(Map<String, String> query) throws HttpError
+    {
+        ArrayList<CatalogIndex.Criterion> criteria = new ArrayList<>();
+        for (Map.Entry<String, String> parameter : query.entrySet())
+        {
+            if (parameter.getKey().equals("limit")) {continue;}
+            criteria.add(CatalogIndex.where(field(parameter.getKey()), parameter.getValue()));
+        }
+        if (criteria.isEmpty()) {throw new HttpError(400, "At least one field must be given");}
+        return titles(catalogIndex.query(criteria.toArray(new CatalogIndex.Criterion[0])), limit(query, "limit", Integer.MAX_VALUE));
+    }
+
+    /**
+     * GET /range
+     * @param query The query parameters
+     * @return The titles of the matching books as a JSON array, ordered by the field
+     * @throws HttpError If a parameter is missing, the field is unknown or the limit is invalid
+     */
+    private String range(Map<String, String> query) throws HttpError
+    {
+        CatalogIndex.Field field = field(require(query, "field"));
+        return titles(catalogIndex.range(field, require(query, "from"), require(query, "to")), limit(query, "limit", Integer.MAX_VALUE));
+    }
+
+    /**
+     * Returns the CatalogIndex field a query parameter names, ignoring case
+     * @param name The name of the field, such as first_author
+     * @return The field
+     * @throws HttpError If no field has the name
+     */
+    private static CatalogIndex.Field field(String name) throws HttpError
+    {
+        for (CatalogIndex.Field field : CatalogIndex.Field.values())
+        {
+            if (field.name().equalsIgnoreCase(name)) {return field;}
+        }
+        throw new HttpError(400, "\"" + name + "\" is not a field of the catalog");
+    }
+
+    /**
+     * Returns the titles of books as a JSON array
+     * @param books The books
+     * @param limit The most titles to return
+     * @return The JSON array
+     */
+    private static String titles(List<Book> books, int limit)
+    {
+        StringBuilder out = new StringBuilder("[");
+        for (int i = 0; i < Math.min(limit, books.size()); i++)
+        {
+            if (i > 0) {out.append(", ");}
+            ReportWriter.appendJsonString(out, books.get(i).getTitle());
+        }
+        return out.append(']').toString();
+    }
+
+    /**
+     * GET /student
+     * @param query The query parameters
+     * @return The student and the titles they are renting as JSON
+     * @throws HttpError If the student could not be found
+     */
+    private String student(Map<String, String> query) throws HttpError
+    {
+        Student student = findStudent(require(query, "name"));
+        StringBuilder out = new StringBuilder("{");
+        ReportWriter.appendJsonField(out, "name", student.getName()).append(", \"renting\": [");
+        boolean first = true;
+        for (Book rented : student.getRentedBooks())
+        {
+            if (!first) {out.append(", ");}
+            ReportWriter.appendJsonString(out, rented.getTitle());
+            first = false;
+        }
+        return out.append("]}").toString();
+    }
+
+    /**
+     * GET /students
+     * @param query The query parameters
+     * @return The names of the students as a JSON array
+     * @throws HttpError If the limit is invalid
+     */
+    private String students(Map<String, String> query) throws HttpError
+    {
+        int limit = limit(query, "limit", Integer.MAX_VALUE);
+        StringBuilder out = new StringBuilder("[");
+        int count = 0;
+        for (Student student : studentList.snapshot())
+        {
+            if (count++ == limit) {break;}
+            if (count > 1) {out.append(", ");}
+            ReportWriter.appendJsonString(out, student.getName());
+        }
+        return out.append(']').toString();
+    }
+
+    /**
+     * GET /waitlist
+     * @param query The query parameters
+     * @return The title and the students waiting for it as JSON
+     * @throws HttpError If the book could not be found
+     */
+    private String waitlist(Map<String, String> query) throws HttpError
+    {
+        Book book = findBook(require(query, "title"));
+        StringBuilder out = new StringBuilder("{");
+        ReportWriter.appendJsonField(out, "title", book.getTitle()).append(", \"waitlist\": [");
+        synchronized (book)
+        {
+            boolean first = true;
+            for (Student waiting : book.getWaitlist())
+            {
+                if (!first) {out.append(", ");}
+                ReportWriter.appendJsonString(out, waiting.getName());
+                first = false;
+            }
+        }
+        return out.append("]}").toString();
+    }
+
+    /**
+     * GET /overdue
+     * @param query The query parameters
+     * @return The overdue rentals and the next rental to fall due as JSON
+     * @throws HttpError If the limit is invalid
+     */
+    private String overdue(Map<String, String> query) throws HttpError
+    {
+        RentalRelation rentals = RentalRelation.getDefault();
+        StringBuilder out = new StringBuilder("{\"overdue\": [");
+        boolean first = true;
+        for (RentalRelation.Loan loan : rentals.overdue(Book.now(), limit(query, "limit", 100)))
+        {
+            if (!first) {out.append(", ");}
+            appendLoan(out, loan);
+            first = false;
+        }
+        out.append("], \"nextDue\": ");
+        RentalRelation.Loan next = rentals.nextDue();
+        if (next == null) {out.append("null");}
+        else {appendLoan(out, next);}
+        return out.append('}').toString();
+    }
+
+    /**
+     * GET /recommend
+     * @param query The query parameters
+     * @return The title and the recommended titles as JSON
+     * @throws HttpError If the book could not be found or the limit is invalid
+     */
+    private String recommend(Map<String, String> query) throws HttpError
+    {
+        Book book = findBook(require(query, "title"));
+        StringBuilder out = new StringBuilder("{");
+        ReportWriter.appendJsonField(out, "title", book.getTitle()).append(", \"recommended\": [");
+        boolean first = true;
+        for (Book recommended : coRentals.recommend(book.getTitle(), limit(query, "limit", CoRentalIndex.DEFAULT_TOP_K)))
+        {
+            if (!first) {out.append(", ");}
+            ReportWriter.appendJsonString(out, recommended.getTitle());
+            first = false;
+        }
+        return out.append("]}").toString();
+    }
+
+    /**
+     * Appends a rental as a JSON object
+     * @param out The JSON being written
+     * @param loan The rental
+     */
+    private static void appendLoan(StringBuilder out, RentalRelation.Loan loan)
+    {
+        out.append('{');
+        ReportWriter.appendJsonField(out, "title", loan.getBook().getTitle()).append(", ");
+        ReportWriter.appendJsonField(out, "student", loan.getStudent().getName()).append(", ");
+        ReportWriter.appendJsonField(out, "due", Instant.ofEpochMilli(loan.getDueDate()).toString()).append('}');
+    }
+
+    /**
+     * POST /rent
+     * @param query The query parameters
+     * @return The outcome of the rental as JSON
+     * @throws HttpError If the student or the book could not be found
+     */
+    private String rent(Map<String, String> query) throws HttpError
+    {
+        Student student = findStudent(require(query, "student"));
+        Book book = findBook(require(query, "title"));
+        String status;
+
+        //Holding the book keeps the outcome consistent with the checkout it describes
+        synchronized (book)
+        {
+            if (book.isRentedBy(student)) {status = "already renting";}
+            else if (book.isWaitlisted(student)) {status = "already waitlisted";}
+            else
+            {
+                student.rentBook(book);
+                status = book.isRentedBy(student) ? "rented" : "waitlisted";
+            }
+            updateRentedList(book);
+        }
+        awaitDurable();
+        return outcome(student, book, status);
+    }
+
+    /**
+     * POST /return
+     * @param query The query parameters
+     * @return The outcome of the return as JSON
+     * @throws HttpError If the student or the book could not be found, or the student is not renting the book
+     */
+    private String returnBook(Map<String, String> query) throws HttpError
+    {
+        Student student = findStudent(require(query, "student"));
+        Book book = findBook(require(query, "title"));
+
+        synchronized (book)
+        {
+            if (!book.isRentedBy(student))
+            {
+                throw new HttpError(409, "The student has not checked out that book");
+            }
+            student.returnBook(book);
+            updateRentedList(book);
+        }
+        awaitDurable();
+        return outcome(student, book, "returned");
+    }
+
+    /**
+     * Keeps the list of rented books current after a rent or return, the way the Driver menu does.
+     * Called while holding the book, so the renter count cannot change underneath.
+     * @param book The book that was rented or returned
+     */
+    private void updateRentedList(Book book)
+    {
+        synchronized (rentedBookList)
+        {
+            boolean listed = rentedBookList.contains(book.getTitle());
+            if (book.getRenterCount() > 0 && !listed) {rentedBookList.append(book.getTitle(), book);}
+            else if (book.getRenterCount() == 0 && listed) {rentedBookList.removeElement(book.getTitle());}
+        }
+    }
+
+    /**
+     * Blocks until every rental event logged so far, including the caller's, has been fsynced.
+     * Waiting outside the book's monitor lets other requests join the same group commit.
+     * @throws HttpError If the journal could not be written
+     */
+    private void awaitDurable() throws HttpError
+    {
+        if (journal == null) {return;}
+        try {journal.sync();}
+        catch (IOException e) {throw new HttpError(503, "The rental could not be saved. " + e.getMessage());}
+    }
+
+    /**
+     * Returns the body of a rent or return response
+     * @param student The student
+     * @param book The book
+     * @param status The outcome
+     * @return The body of the response
+     */
+    private static String outcome(Student student, Book book, String status)
+    {
+        StringBuilder out = new StringBuilder("{");
+        ReportWriter.appendJsonField(out, "student", student.getName()).append(", ");
+        ReportWriter.appendJsonField(out, "title", book.getTitle()).append(", ");
+        ReportWriter.appendJsonField(out, "status", status).append(", \"available\": ").append(book.getNumberOfCopies());
+        return out.append('}').toString();
+    }
+}
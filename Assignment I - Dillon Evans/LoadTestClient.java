@@ -0,0 +1,264 @@
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A load test client for LibraryServer. It keeps a fixed number of requests in flight, each on
+ * its own HTTP/1.1 connection, and reports the throughput, the response codes and the latency
+ * percentiles. The requests are a mix of book lookups, rentals and returns of books that were
+ * rented earlier in the run.
+ *
+ * Usage: java LoadTestClient [key=value ...]
+ *   port=8353          port of the LibraryServer on localhost
+ *   connections=1000   number of requests in flight at once
+ *   requests=100000    number of requests to send
+ *   reads=0.7          fraction of requests that are lookups, the rest are split between rents and returns
+ *   seed=3353          random seed
+ *
+ * Many thousands of connections need a higher open file limit (ulimit -n) on both sides.
+ * @author Dillon Evans
+ */
+public class LoadTestClient
+{
+    private int port = LibraryServer.DEFAULT_PORT, connections = 1000, requests = 100_000;
+    private double reads = 0.7;
+    private long seed = 3353;
+
+    private HttpClient client;
+    private String[] titles, students;
+
+    //Response codes are counted by their first digit, 0 is a failed connection
+    private AtomicLongArray statusCounts = new AtomicLongArray(6);
+    private LatencyHistogram latency = new LatencyHistogram();
+    private ConcurrentLinkedQueue<String[]> rented = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The program entry point
+     * @param args The test parameters as key=value pairs
+     */
+    public static void main(String[] args)
+    {
+        try
+        {
+            LoadTestClient test = new LoadTestClient();
+            for (String arg : args) {test.configure(arg);}
+            test.run();
+        }
+        catch (Exception e)
+        {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Sets a test parameter
+     * @param arg The parameter as key=value
+     * @throws Exception If the parameter is unknown or its value is invalid
+     */
+    private void configure(String arg) throws Exception
+    {
+        int split = arg.indexOf('=');
+        if (split < 0) {throw new Exception("Expected key=value but found " + arg);}
+        String key = arg.substring(0, split), value = arg.substring(split + 1);
+        try
+        {
+            switch (key)
+            {
+                case "port": port = Integer.parseInt(value); break;
+                case "connections": connections = Integer.parseInt(value); break;
+                case "requests": requests = Integer.parseInt(value); break;
+                case "reads": reads = Double.parseDouble(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                default: throw new Exception("Unknown parameter " + key);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new Exception("Invalid value for " + key + ": " + value);
+        }
+        if (connections < 1 || requests < 0 || reads < 0 || reads > 1)
+        {
+            throw new Exception("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    /**
+     * Fetches the titles and students from the server, sends the requests and prints the report
+     * @throws Exception If the server could not be reached or the test was interrupted
+     */
+    private void run() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .executor(executor)
+            .build();
+
+        titles = fetchNames("/search?prefix=&limit=" + Integer.MAX_VALUE);
+        students = fetchNames("/students");
+        if (titles.length == 0 || students.length == 0) {throw new Exception("The server has no books or no students.");}
+        System.out.printf("Testing http://localhost:%d/ with %d books, %d students and %d connections\n",
+            port, titles.length, students.length, connections);
+
+        SplittableRandom random = new SplittableRandom(seed);
+        Semaphore inFlight = new Semaphore(connections);
+        CountDownLatch finished = new CountDownLatch(requests);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < requests; i++)
+        {
+            HttpRequest request = nextRequest(random);
+            inFlight.acquire();
+            long sent = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, failure) ->
+            {
+                latency.record(System.nanoTime() - sent);
+                if (failure != null) {statusCounts.incrementAndGet(0);}
+                else
+                {
+                    statusCounts.incrementAndGet(Math.min(5, response.statusCode() / 100));
+                    remember(request, response);
+                }
+                inFlight.release();
+                finished.countDown();
+            });
+        }
+        finished.await();
+        long elapsed = System.nanoTime() - start;
+        executor.shutdownNow();
+
+        System.out.printf("Requests: %d in %.1f ms\n", requests, elapsed / 1e6);
+        System.out.printf("Throughput: %.0f requests/sec\n", requests / (elapsed / 1e9));
+        System.out.printf("Responses: 2xx=%d 4xx=%d 5xx=%d failed=%d\n",
+            statusCounts.get(2), statusCounts.get(4), statusCounts.get(5), statusCounts.get(0));
+        System.out.printf("Latency: p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms\n",
+            latency.getPercentile(50) / 1e6, latency.getPercentile(90) / 1e6, latency.getPercentile(99) / 1e6,
+            latency.getPercentile(99.9) / 1e6, latency.getMax() / 1e6);
+    }
+
+    /**
+     * Fetches a JSON array of strings from the server
+     * @param path The path and query of the request
+     * @return The strings of the array
+     * @throws Exception If the request failed
+     */
+    private String[] fetchNames(String path) throws Exception
+    {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri(path)).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {throw new Exception("GET " + path + " returned " + response.statusCode());}
+        return parseStrings(response.body());
+    }
+
+    /**
+     * Parses a JSON array of strings as written by ReportWriter.appendJsonString
+     * @param json The JSON array
+     * @return The strings of the array
+     */
+    private static String[] parseStrings(String json)
+    {
+        ArrayList<String> values = new ArrayList<>();
+        StringBuilder value = null;
+        for (int i = 0; i < json.length(); i++)
+        {
+            char c = json.charAt(i);
+            if (value == null)
+            {
+                if (c == '"') {value = new StringBuilder();}
+            }
+            else if (c == '"')
+            {
+                values.add(value.toString());
+                value = null;
+            }
+            else if (c == '\\')
+            {
+                char escaped = json.charAt(++i);
+                switch (escaped)
+                {
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u': value.append((char)Integer.parseInt(json.substring(i + 1, i + 5), 16)); i += 4; break;
+                    default: value.append(escaped); break;
+                }
+            }
+            else {value.append(c);}
+        }
+        return values.toArray(new String[0]);
+    }
+
+    /**
+     * Picks the next request: a lookup, a rental, or the return of a book rented earlier
+     * @param random The random generator of the test
+     * @return The request
+     */
+    private HttpRequest nextRequest(SplittableRandom random)
+    {
+        String title = titles[random.nextInt(titles.length)];
+        String student = students[random.nextInt(students.length)];
+        double kind = random.nextDouble();
+
+        if (kind < reads) {return HttpRequest.newBuilder(uri("/book?title=" + encode(title))).build();}
+
+        String[] loan = ((kind - reads) < (1 - reads) / 2) ? null : rented.poll();
+        if (loan != null) {return post("/return?student=" + encode(loan[0]) + "&title=" + encode(loan[1]));}
+        return post("/rent?student=" + encode(student) + "&title=" + encode(title));
+    }
+
+    /**
+     * Remembers a successful rental so a later request can return it
+     * @param request The request that was sent
+     * @param response The response of the server
+     */
+    private void remember(HttpRequest request, HttpResponse<String> response)
+    {
+        if (response.statusCode() != 200 || !request.uri().getPath().equals("/rent")) {return;}
+        if (!response.body().contains("\"status\": \"rented\"")) {return;}
+
+        String[] loan = new String[2];
+        for (String pair : request.uri().getRawQuery().split("&"))
+        {
+            if (pair.startsWith("student=")) {loan[0] = URLDecoder.decode(pair.substring(8), StandardCharsets.UTF_8);}
+            else if (pair.startsWith("title=")) {loan[1] = URLDecoder.decode(pair.substring(6), StandardCharsets.UTF_8);}
+        }
+        rented.add(loan);
+    }
+
+    /**
+     * Returns a POST request with an empty body
+     * @param path The path and query of the request
+     * @return The request
+     */
+    private HttpRequest post(String path)
+    {
+        return HttpRequest.newBuilder(uri(path)).POST(HttpRequest.BodyPublishers.noBody()).build();
+    }
+
+    /**
+     * Returns the URI of a path on the server
+     * @param path The path and query
+     * @return The URI
+     */
+    private URI uri(String path) {return URI.create("http://localhost:" + port + path);}
+
+    /**
+     * Encodes a query parameter value
+     * @param value The value
+     * @return The encoded value
+     */
+    private static String encode(String value) {return URLEncoder.encode(value, StandardCharsets.UTF_8);}
+}
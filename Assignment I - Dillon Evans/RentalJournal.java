@@ -0,0 +1,457 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/**
+ * An append-only write-ahead journal of rental events along with compact snapshots of the
+ * rental state. Events are logged while the book's monitor is held, so the journal order of
+ * the events of a single book matches the order they were applied in. A background thread
+ * writes and fsyncs every pending event in one batch (group commit).
+ *
+ * Each snapshot stores, per book, the sequence number of the last event applied to it. Recovery
+ * loads the latest snapshot and replays only the journal events newer than that, so restart time
+ * is proportional to the activity since the last snapshot rather than the size of the catalog.
+ * @author Dillon Evans
+ */
+public class RentalJournal
+{
+    public static final String CHECKOUT = "CHECKOUT", CHECKIN = "CHECKIN", WAITLIST = "WAITLIST", CANCEL = "CANCEL";
+
+    private Path journalPath, snapshotPath;
+    private FileChannel channel;
+    private Thread writer;
+
+    //Guarded by this
+    private StringBuilder pending = new StringBuilder();
+    private long lastSequence = 0, durableSequence = 0, eventsSinceSnapshot = 0;
+    private boolean closed = false;
+    private IOException writeError;
+
+    /**
+     * Opens the journal, creating the files if they do not exist, and starts the group commit thread
+     * @param journalPath The path of the journal file
+     * @param snapshotPath The path of the snapshot file
+     * @throws IOException If the journal cannot be opened
+     */
+    public RentalJournal(Path journalPath, Path snapshotPath) throws IOException
+    {
+        this.journalPath = journalPath;
+        this.snapshotPath = snapshotPath;
+        dropTornTail();
+        lastSequence = durableSequence = findLastSequence();
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writer = new Thread(this::writeBatches, "rental-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns true if there is a snapshot or journal to recover the rental state from
+     * @return True if there is a snapshot or journal to recover from
+     */
+    public boolean hasState() throws IOException
+    {
+        return Files.exists(snapshotPath) || (Files.exists(journalPath) && Files.size(journalPath) > 0);
+    }
+
+    /**
+     * Appends an event to the journal. The event is durable once awaitDurable returns for
+     * the sequence number. Callers hold the monitor of the book the event belongs to.
+     * @param type One of CHECKOUT, CHECKIN, WAITLIST or CANCEL
+     * @param title The title of the book
+     * @param studentName The name of the student
+     * @return The sequence number of the event
+     */
+    public synchronized long log(String type, String title, String studentName)
+    {
+        lastSequence++;
+        eventsSinceSnapshot++;
+        pending.append(lastSequence).append('\t').append(type).append('\t')
+            .append(title).append('\t').append(studentName).append('\n');
+        notifyAll();
+        return lastSequence;
+    }
+
+    /**
+     * Returns the sequence number of the last event logged
+     * @return The sequence number of the last event logged
+     */
+    public synchronized long getLastSequence() {return lastSequence;}
+
+    /**
+     * Returns the number of events logged since the last snapshot
+     * @return The number of events logged since the last snapshot
+     */
+    public synchronized long getEventsSinceSnapshot() {return eventsSinceSnapshot;}
+
+    /**
+     * Blocks until the event with the specified sequence number has been fsynced
+     * @param sequence The sequence number to wait for
+     * @throws IOException If the journal could not be written
+     */
+    public synchronized void awaitDurable(long sequence) throws IOException
+    {
+        boolean interrupted = false;
+        while (durableSequence < sequence && writeError == null && !closed)
+        {
+            try {wait();}
+            catch (InterruptedException e) {interrupted = true;}
+        }
+        if (interrupted) {Thread.currentThread().interrupt();}
+        if (writeError != null) {throw writeError;}
+    }
+
+    /**
+     * Blocks until every event logged so far has been fsynced
+     * @throws IOException If the journal could not be written
+     */
+    public void sync() throws IOException {awaitDurable(getLastSequence());}
+
+    /**
+     * The group commit loop. Every event that arrived while the previous batch was being
+     * fsynced is written and fsynced together in the next batch.
+     */
+    private void writeBatches()
+    {
+        while (true)
+        {
+            String batch;
+            long batchSequence;
+            synchronized (this)
+            {
+                while (pending.length() == 0 && !closed)
+                {
+                    try {wait();}
+                    catch (InterruptedException e) {return;}
+                }
+                if (pending.length() == 0) {return;}
+                batch = pending.toString();
+                batchSequence = lastSequence;
+                pending.setLength(0);
+            }
+
+            try
+            {
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(batch);
+                synchronized (channel)
+                {
+                    while (bytes.hasRemaining()) {channel.write(bytes);}
+                    channel.force(false);
+                }
+                synchronized (this)
+                {
+                    durableSequence = batchSequence;
+                    notifyAll();
+                }
+            }
+            catch (IOException e)
+            {
+                synchronized (this)
+                {
+                    writeError = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the rental state of every book and the list of students, then
+     * drops the journal events the snapshot already covers. Each book is copied under its
+     * own monitor, so rentals may continue while the snapshot is taken.
+     * @param bookList The catalog
+     * @param studentList Every student in the library system
+     * @throws IOException If the snapshot could not be written
+     */
+    public void writeSnapshot(ElementList<Book> bookList, ElementList<Student> studentList) throws IOException
+    {
+        HashMap<String, Long> bookSequences = new HashMap<>();
+        Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+        {
+            for (Student student : studentList)
+            {
+                out.write("S\t" + student.getName() + "\n");
+            }
+            for (Book book : bookList)
+            {
+                synchronized (book)
+                {
+                    long sequence = getLastSequence();
+                    bookSequences.put(book.getTitle(), sequence);
+                    out.write("B\t" + sequence + "\t" + book.getNumberOfCopies() + "\t" + book.getTitle() + "\n");
+                    for (Student renter : book.getRenters())
+                    {
+                        out.write("R\t" + renter.getName() + "\t" + book.getDueDate(renter) + "\n");
+                    }
+                    for (Student waiting : book.getWaitlist()) {out.write("W\t" + waiting.getName() + "\n");}
+                }
+            }
+        }
+        try (FileChannel snapshot = FileChannel.open(temp, StandardOpenOption.WRITE))
+        {
+            snapshot.force(true);
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        compact(bookSequences);
+    }
+
+    /**
+     * Rewrites the journal without the events that are covered by the snapshot. Logging
+     * is blocked while the journal is rewritten.
+     * @param bookSequences The sequence number each book was snapshotted at
+     * @throws IOException If the journal could not be rewritten
+     */
+    private synchronized void compact(HashMap<String, Long> bookSequences) throws IOException
+    {
+        //Wait for the writer so every logged event is in the file before it is rewritten. An
+        //interrupt does not cut the wait short, since rewriting early would drop acknowledged events.
+        boolean interrupted = false;
+        while (durableSequence < lastSequence && writeError == null)
+        {
+            try {wait();}
+            catch (InterruptedException e) {interrupted = true;}
+        }
+        if (interrupted) {Thread.currentThread().interrupt();}
+        if (writeError != null) {throw writeError;}
+
+        Path temp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        long remaining = 0;
+        synchronized (channel)
+        {
+            try (BufferedReader in = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8);
+                 BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+            {
+                String line;
+                while ((line = in.readLine()) != null)
+                {
+                    String[] event = parseEvent(line);
+                    Long covered = (event != null) ? bookSequences.get(event[2]) : null;
+                    if (event != null && (covered == null || Long.parseLong(event[0]) > covered))
+                    {
+                        out.write(line + "\n");
+                        remaining++;
+                    }
+                }
+            }
+            try (FileChannel compacted = FileChannel.open(temp, StandardOpenOption.WRITE))
+            {
+                compacted.force(true);
+            }
+            channel.close();
+            Files.move(temp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        eventsSinceSnapshot = remaining;
+    }
+
+    /**
+     * Restores the rental state of the catalog from the latest snapshot and the journal tail.
+     * Events are replayed through Book.checkOut, Book.checkIn and Book.cancelWaitlist, so the
+     * journal must not be attached to Book while this runs. Rentals in the snapshot keep their
+     * due dates, while checkouts replayed from the journal are due one loan period after recovery.
+     * @param bookList The freshly loaded catalog
+     * @return Every student in the library system
+     * @throws IOException If the snapshot or journal cannot be read
+     */
+    public ElementList<Student> recover(ElementList<Book> bookList) throws IOException
+    {
+        ElementList<Student> studentList = new ElementList<>();
+        HashMap<String, Long> bookSequences = new HashMap<>();
+
+        if (Files.exists(snapshotPath))
+        {
+            try (BufferedReader in = Files.newBufferedReader(snapshotPath, StandardCharsets.UTF_8))
+            {
+                String line;
+                Book book = null;
+                while ((line = in.readLine()) != null)
+                {
+                    String[] fields = line.split("\t", 4);
+                    switch (fields[0])
+                    {
+                        case "S":
+                            findStudent(studentList, fields[1]);
+                            break;
+                        case "B":
+                            book = bookList.getElement(fields[3]);
+                            if (book != null)
+                            {
+                                bookSequences.put(book.getTitle(), Long.parseLong(fields[1]));
+                                book.setNumberOfCopies(Integer.parseInt(fields[2]));
+                            }
+                            break;
+                        case "R":
+                            if (book != null)
+                            {
+                                //Snapshots written before due dates were tracked start a new loan period
+                                Student renter = findStudent(studentList, fields[1]);
+                                book.addRenter(renter, (fields.length > 2) ? Long.parseLong(fields[2]) : Book.nextDueDate());
+                            }
+                            break;
+                        case "W":
+                            if (book != null) {book.addToWaitlist(findStudent(studentList, fields[1]));}
+                            break;
+                        default:
+                            throw new IOException("Corrupt snapshot entry: " + line);
+                    }
+                }
+            }
+        }
+
+        if (Files.exists(journalPath))
+        {
+            try (BufferedReader in = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8))
+            {
+                String line;
+                while ((line = in.readLine()) != null)
+                {
+                    //The torn tail was dropped when the journal was opened, so only malformed lines are skipped
+                    String[] event = parseEvent(line);
+                    if (event == null) {continue;}
+
+                    Book book = bookList.getElement(event[2]);
+                    Long covered = bookSequences.get(event[2]);
+                    if (book == null || (covered != null && Long.parseLong(event[0]) <= covered)) {continue;}
+
+                    Student student = findStudent(studentList, event[3]);
+                    if (event[1].equals(CHECKIN)) {book.checkIn(student);}
+                    else if (event[1].equals(CANCEL)) {book.cancelWaitlist(student);}
+                    else {book.checkOut(student);}
+                }
+            }
+        }
+        return studentList;
+    }
+
+    /**
+     * Flushes every pending event and stops the group commit thread
+     * @throws IOException If the journal could not be written
+     */
+    public void close() throws IOException
+    {
+        sync();
+        synchronized (this)
+        {
+            closed = true;
+            notifyAll();
+        }
+        try {writer.join();}
+        catch (InterruptedException e) {Thread.currentThread().interrupt();}
+        synchronized (channel) {channel.close();}
+    }
+
+    /**
+     * Returns the student with the specified name, adding them to the list if needed
+     * @param studentList The list of students
+     * @param name The name of the student
+     * @return The student with the specified name
+     */
+    private static Student findStudent(ElementList<Student> studentList, String name)
+    {
+        Student student = studentList.getElement(name);
+        if (student == null)
+        {
+            student = new Student();
+            student.setName(name);
+            studentList.append(name, student);
+        }
+        return student;
+    }
+
+    /**
+     * Splits a journal line into its sequence number, type, title and student name
+     * @param line The journal line
+     * @return The fields of the event or null if the line is incomplete
+     */
+    private static String[] parseEvent(String line)
+    {
+        String[] fields = line.split("\t", 4);
+        if (fields.length != 4 || fields[0].isEmpty()) {return null;}
+        for (int i = 0; i < fields[0].length(); i++)
+        {
+            if (!Character.isDigit(fields[0].charAt(i))) {return null;}
+        }
+        return fields;
+    }
+
+    /**
+     * Truncates the journal after its last newline. Every event is written with its newline in
+     * one append, so anything after the last one is a torn write from a crash mid-batch. A torn
+     * line can still parse, for example with its student name cut short, so it is dropped before
+     * recovery reads it and before new events are appended to it.
+     * @throws IOException If the journal cannot be truncated
+     */
+    private void dropTornTail() throws IOException
+    {
+        if (!Files.exists(journalPath)) {return;}
+        try (FileChannel file = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            long size = file.size(), end = size;
+            ByteBuffer block = ByteBuffer.allocate(4096);
+            boolean found = false;
+            while (end > 0 && !found)
+            {
+                int length = (int)Math.min(block.capacity(), end);
+                block.clear().limit(length);
+                while (block.hasRemaining())
+                {
+                    if (file.read(block, end - length + block.position()) < 0) {throw new IOException("The journal was truncated while it was read");}
+                }
+                int i = length;
+                while (i > 0 && block.get(i - 1) != '\n') {i--;}
+                found = i > 0;
+                end = end - length + i;
+            }
+            if (end < size)
+            {
+                file.truncate(end);
+                file.force(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last event in the journal so numbering continues after a restart
+     * @return The sequence number of the last event in the journal, or 0 if it is empty
+     * @throws IOException If the journal cannot be read
+     */
+    private long findLastSequence() throws IOException
+    {
+        long last = 0;
+        if (Files.exists(journalPath))
+        {
+            try (BufferedReader in = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8))
+            {
+                String line;
+                while ((line = in.readLine()) != null)
+                {
+                    String[] event = parseEvent(line);
+                    if (event != null) {last = Math.max(last, Long.parseLong(event[0]));}
+                }
+            }
+        }
+        if (Files.exists(snapshotPath))
+        {
+            try (BufferedReader in = Files.newBufferedReader(snapshotPath, StandardCharsets.UTF_8))
+            {
+                String line;
+                while ((line = in.readLine()) != null)
+                {
+                    if (line.startsWith("B\t")) {last = Math.max(last, Long.parseLong(line.split("\t", 4)[1]));}
+                }
+            }
+        }
+        return last;
+    }
+}
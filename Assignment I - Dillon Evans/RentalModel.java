@@ -0,0 +1,367 @@
+import java.util.Arrays;
+
+/**
+ * The rental state of a set of books in int arrays, keyed by the title and student ids of
+ * IdRegistry. Each book has a slot holding its copy count and a FIFO waitlist of student ids
+ * linked through an entry pool. Each loan is an entry linked into the list of its student, so
+ * every book a student is renting can be returned without a search. A single open addressing
+ * table from the packed (slot, student) pair to its entry answers whether a student is renting
+ * or waiting for a book in O(1), with the kind of entry kept in the top bit of the key.
+ *
+ * Nothing here compares strings or allocates once the arrays have grown to the working set.
+ * The model is not thread safe: it is meant to be owned by a single thread, like a shard of
+ * ShardedLibrary.
+ *
+ * Only ShardedLibrary runs on the model. The menu and LibraryServer share their Book and Student
+ * objects across threads, so their rentals are kept in RentalRelation, which locks per book and
+ * per stripe of students but keys its rentals by int ids in the same way.
+ * @author Dillon Evans
+ */
+public class RentalModel
+{
+    public static final int NONE = -1, NOT_RENTING = -2;
+    private static final long EMPTY = -1L, WAITING = 1L << 62;
+
+    //The slot of every title id in the model, NONE for titles held elsewhere
+    private int[] slotOfTitle = new int[0];
+
+    //The books by slot
+    private int[] titleOfSlot = new int[16], copies = new int[16];
+    private int[] waitHead = new int[16], waitTail = new int[16], waitDepth = new int[16];
+    private int slotCount;
+
+    //The first loan of each student id, the rest are linked through entryNext and entryPrevious
+    private int[] loanHead = new int[0];
+
+    //The entries, either a loan or a place on a waitlist. A free entry is linked through entryNext.
+    private int[] entrySlot = new int[16], entryStudent = new int[16];
+    private int[] entryNext = new int[16], entryPrevious = new int[16];
+    private int entryCount, freeEntry = NONE;
+
+    //Open addressing table from the packed (slot, student) pair to its entry
+    private long[] pairKeys = newKeys(32);
+    private int[] pairEntries = new int[32];
+    private int pairCount;
+
+    /**
+     * Adds a book to the model. A title that is already in the model keeps its first book.
+     * @param titleId The id of the title
+     * @param copyCount The number of copies available
+     * @return The slot of the book
+     */
+    public int addBook(int titleId, int copyCount)
+    {
+        if (titleId < 0) {throw new IllegalArgumentException("The book has no title.");}
+        if (titleId >= slotOfTitle.length)
+        {
+            int length = slotOfTitle.length;
+            slotOfTitle = Arrays.copyOf(slotOfTitle, Math.max(titleId + 1, length * 2));
+            Arrays.fill(slotOfTitle, length, slotOfTitle.length, NONE);
+        }
+        if (slotOfTitle[titleId] != NONE) {return slotOfTitle[titleId];}
+
+        int slot = slotCount++;
+        if (slot == titleOfSlot.length)
+        {
+            int capacity = slot * 2;
+            titleOfSlot = Arrays.copyOf(titleOfSlot, capacity);
+            copies = Arrays.copyOf(copies, capacity);
+            waitHead = Arrays.copyOf(waitHead, capacity);
+            waitTail = Arrays.copyOf(waitTail, capacity);
+            waitDepth = Arrays.copyOf(waitDepth, capacity);
+        }
+        titleOfSlot[slot] = titleId;
+        copies[slot] = copyCount;
+        waitHead[slot] = waitTail[slot] = NONE;
+        waitDepth[slot] = 0;
+        slotOfTitle[titleId] = slot;
+        return slot;
+    }
+
+    /**
+     * Returns the slot of a title
+     * @param titleId The id of the title
+     * @return The slot, or NONE if the title is not in the model
+     */
+    public int slotOf(int titleId) {return (titleId >= 0 && titleId < slotOfTitle.length) ? slotOfTitle[titleId] : NONE;}
+
+    /**
+     * Returns the number of books in the model
+     * @return The number of books
+     */
+    public int getBookCount() {return slotCount;}
+
+    /**
+     * Returns the title id of the book in a slot
+     * @param slot The slot
+     * @return The id of the title
+     */
+    public int titleOf(int slot) {return titleOfSlot[slot];}
+
+    /**
+     * Returns the number of copies of a book available
+     * @param slot The slot of the book
+     * @return The number of copies available
+     */
+    public int copiesOf(int slot) {return copies[slot];}
+
+    /**
+     * Returns the number of students waiting for a book
+     * @param slot The slot of the book
+     * @return The depth of the waitlist
+     */
+    public int waitlistDepth(int slot) {return waitDepth[slot];}
+
+    /**
+     * Returns true if a student is renting a book
+     * @param slot The slot of the book
+     * @param studentId The id of the student
+     * @return True if the student is renting the book
+     */
+    public boolean isRenting(int slot, int studentId) {return findPair(pack(slot, studentId)) >= 0;}
+
+    /**
+     * Returns true if a student is waiting for a book
+     * @param slot The slot of the book
+     * @param studentId The id of the student
+     * @return True if the student is on the waitlist
+     */
+    public boolean isWaiting(int slot, int studentId) {return findPair(pack(slot, studentId) | WAITING) >= 0;}
+
+    /**
+     * Rents a copy of a book to a student. The caller checks that a copy is available and the
+     * student is not already renting it.
+     * @param slot The slot of the book
+     * @param studentId The id of the student
+     */
+    public void rent(int slot, int studentId)
+    {
+        copies[slot]--;
+        int entry = allocateEntry(slot, studentId);
+        growStudents(studentId);
+
+        //Loans are pushed at the front of the student's list, the order does not matter here
+        entryPrevious[entry] = NONE;
+        entryNext[entry] = loanHead[studentId];
+        if (loanHead[studentId] != NONE) {entryPrevious[loanHead[studentId]] = entry;}
+        loanHead[studentId] = entry;
+        insertPair(pack(slot, studentId), entry);
+    }
+
+    /**
+     * Adds a student to the end of the waitlist of a book. The caller checks that the student
+     * is not already on it.
+     * @param slot The slot of the book
+     * @param studentId The id of the student
+     */
+    public void enqueue(int slot, int studentId)
+    {
+        int entry = allocateEntry(slot, studentId);
+        entryNext[entry] = NONE;
+        if (waitTail[slot] == NONE) {waitHead[slot] = entry;}
+        else {entryNext[waitTail[slot]] = entry;}
+        waitTail[slot] = entry;
+        waitDepth[slot]++;
+        insertPair(pack(slot, studentId) | WAITING, entry);
+    }
+
+    /**
+     * Returns a student's copy of a book and hands it to the head of the waitlist, if any
+     * @param slot The slot of the book
+     * @param studentId The id of the student
+     * @return The id of the student the copy went to, NONE if nobody was waiting, or NOT_RENTING
+     * if the student was not renting the book
+     */
+    public int giveBack(int slot, int studentId)
+    {
+        int pair = findPair(pack(slot, studentId));
+        if (pair < 0) {return NOT_RENTING;}
+        int entry = pairEntries[pair];
+        deletePair(pair);
+
+        if (entryPrevious[entry] == NONE) {loanHead[studentId] = entryNext[entry];}
+        else {entryNext[entryPrevious[entry]] = entryNext[entry];}
+        if (entryNext[entry] != NONE) {entryPrevious[entryNext[entry]] = entryPrevious[entry];}
+        freeEntry(entry);
+        copies[slot]++;
+
+        int waiting = waitHead[slot];
+        if (waiting == NONE) {return NONE;}
+        int next = entryStudent[waiting];
+        waitHead[slot] = entryNext[waiting];
+        if (waitHead[slot] == NONE) {waitTail[slot] = NONE;}
+        waitDepth[slot]--;
+        deletePair(findPair(pack(slot, next) | WAITING));
+        freeEntry(waiting);
+
+        rent(slot, next);
+        return next;
+    }
+
+    /**
+     * Returns the slot of a book the student is renting
+     * @param studentId The id of the student
+     * @return The slot, or NONE if the student is not renting anything
+     */
+    public int anyLoanOf(int studentId)
+    {
+        return (studentId >= 0 && studentId < loanHead.length && loanHead[studentId] != NONE) ? entrySlot[loanHead[studentId]] : NONE;
+    }
+
+    /**
+     * Grows the per student array to hold an id
+     * @param studentId The id of the student
+     */
+    private void growStudents(int studentId)
+    {
+        if (studentId < loanHead.length) {return;}
+        int length = loanHead.length;
+        loanHead = Arrays.copyOf(loanHead, Math.max(studentId + 1, Math.max(16, length * 2)));
+        Arrays.fill(loanHead, length, loanHead.length, NONE);
+    }
+
+    /**
+     * Returns a free entry, growing the entry arrays if there is none
+     * @param slot The slot of the book
+     * @param studentId The id of the student
+     * @return The entry
+     */
+    private int allocateEntry(int slot, int studentId)
+    {
+        int entry;
+        if (freeEntry != NONE)
+        {
+            entry = freeEntry;
+            freeEntry = entryNext[entry];
+        }
+        else
+        {
+            if (entryCount == entrySlot.length)
+            {
+                int capacity = entryCount * 2;
+                entrySlot = Arrays.copyOf(entrySlot, capacity);
+                entryStudent = Arrays.copyOf(entryStudent, capacity);
+                entryNext = Arrays.copyOf(entryNext, capacity);
+                entryPrevious = Arrays.copyOf(entryPrevious, capacity);
+            }
+            entry = entryCount++;
+        }
+        entrySlot[entry] = slot;
+        entryStudent[entry] = studentId;
+        return entry;
+    }
+
+    /**
+     * Returns an entry to the free list
+     * @param entry The entry
+     */
+    private void freeEntry(int entry)
+    {
+        entryNext[entry] = freeEntry;
+        freeEntry = entry;
+    }
+
+    /**
+     * Returns a new key array with every slot empty
+     * @param capacity The number of slots, a power of two
+     * @return The key array
+     */
+    private static long[] newKeys(int capacity)
+    {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    /**
+     * Packs a slot and a student id into a single loan key
+     * @param slot The slot of the book
+     * @param studentId The id of the student
+     * @return The key, which is never EMPTY
+     */
+    private static long pack(int slot, int studentId) {return ((long)slot << 32) | (studentId & 0xFFFFFFFFL);}
+
+    /**
+     * Returns the home slot of a key in the pair table
+     * @param key The key
+     * @return The slot the probe for the key starts at
+     */
+    private int homeOf(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int)key & (pairKeys.length - 1);
+    }
+
+    /**
+     * Returns the table slot holding a key
+     * @param key The key
+     * @return The table slot, or -1 if the key is not in the table
+     */
+    private int findPair(long key)
+    {
+        int mask = pairKeys.length - 1;
+        for (int i = homeOf(key); pairKeys[i] != EMPTY; i = (i + 1) & mask)
+        {
+            if (pairKeys[i] == key) {return i;}
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a key that is not in the table, growing it to stay at most half full
+     * @param key The key
+     * @param entry The entry of the key
+     */
+    private void insertPair(long key, int entry)
+    {
+        if (++pairCount * 2 > pairKeys.length)
+        {
+            long[] oldKeys = pairKeys;
+            int[] oldEntries = pairEntries;
+            pairKeys = newKeys(oldKeys.length * 2);
+            pairEntries = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldKeys[i] != EMPTY) {place(oldKeys[i], oldEntries[i]);}
+            }
+        }
+        place(key, entry);
+    }
+
+    /**
+     * Stores a key in the first empty table slot of its probe sequence
+     * @param key The key
+     * @param entry The entry of the key
+     */
+    private void place(long key, int entry)
+    {
+        int mask = pairKeys.length - 1, i = homeOf(key);
+        while (pairKeys[i] != EMPTY) {i = (i + 1) & mask;}
+        pairKeys[i] = key;
+        pairEntries[i] = entry;
+    }
+
+    /**
+     * Empties a table slot, shifting later keys of the same probe sequence back so lookups still find them
+     * @param slot The table slot to empty
+     */
+    private void deletePair(int slot)
+    {
+        int mask = pairKeys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; pairKeys[next] != EMPTY; next = (next + 1) & mask)
+        {
+            int home = homeOf(pairKeys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask))
+            {
+                pairKeys[hole] = pairKeys[next];
+                pairEntries[hole] = pairEntries[next];
+                hole = next;
+            }
+        }
+        pairKeys[hole] = EMPTY;
+        pairCount--;
+    }
+}
@@ -0,0 +1,829 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The rentals of the library as a single relation between books and students, partitioned so
+ * that rentals of different books by different students never wait on the same lock.
+ *
+ * Each book keeps its renters in a Renters list, in the order they rented it. The list belongs
+ * to the book and is guarded by the book's monitor, which checkOut and checkIn already hold. It
+ * is created on the book's first checkout, since most books of a large catalog are never rented.
+ *
+ * The students are dealt over a fixed number of stripes as they are created. Each stripe has its
+ * own lock and holds every rental of its students as an edge in parallel int arrays, linked into
+ * the list of books of its student. The students of a stripe get dense ids while they are renting, and a
+ * hash table from the packed (book id, student id) pair finds a rental directly, so adding, removing
+ * and testing a rental are O(1) and listing either side costs only the number of rentals on that side.
+ * Every edge remembers its place in the book's Renters list, so a return unlinks both sides in O(1).
+ *
+ * A rental may carry a due date. Each stripe keeps the rentals of its students that have one in a
+ * binary min-heap of edges ordered by due date, and each edge remembers its position in the heap,
+ * so a return takes the rental out in O(log n). The next rental to fall due is the earliest root of
+ * the stripes, and the overdue rentals are found by walking each heap down from the root only as far
+ * as the due dates have passed, so listing them costs O(k log k) per stripe for k overdue rentals
+ * no matter how many rentals are active.
+ *
+ * A book's monitor is always taken before a stripe's lock and never the other way around. A stripe
+ * takes no other lock while it is held. Each book and student keeps its part of the rental state
+ * itself, so there is only the one relation returned by getDefault.
+ * @author Dillon Evans
+ */
+public class RentalRelation
+{
+    private static final RentalRelation DEFAULT = new RentalRelation();
+    private static final int NONE = -1;
+    private static final long EMPTY = -1L;
+    public static final long NO_DUE_DATE = Long.MAX_VALUE;
+
+    //A power of two, enough that terminals renting to different students rarely share a stripe
+    private static final int STRIPES = 64;
+
+    //Book ids are handed out once per book and never reused, so they can be read without a lock
+    private static final AtomicInteger BOOK_IDS = new AtomicInteger();
+
+    //Students are dealt to the stripes in turn as they are created
+    private static final AtomicInteger STUDENT_STRIPES = new AtomicInteger();
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * A rental and its due date, copied out of the relation
+     */
+    public static class Loan
+    {
+        private final Book book;
+        private final Student student;
+        private final long dueDate;
+
+        /**
+         * Creates a new Loan object
+         * @param book The book being rented
+         * @param student The student renting it
+         * @param dueDate The due date in milliseconds since the epoch
+         */
+        private Loan(Book book, Student student, long dueDate)
+        {
+            this.book = book;
+            this.student = student;
+            this.dueDate = dueDate;
+        }
+
+        /**
+         * Returns the book being rented
+         * @return The book being rented
+         */
+        public Book getBook() {return book;}
+
+        /**
+         * Returns the student renting the book
+         * @return The student renting the book
+         */
+        public Student getStudent() {return student;}
+
+        /**
+         * Returns the due date
+         * @return The due date in milliseconds since the epoch
+         */
+        public long getDueDate() {return dueDate;}
+    }
+
+    /**
+     * The students renting one book, in the order they rented it, as a doubly linked list in
+     * parallel arrays. Free slots are linked through next. Guarded by the monitor of the book.
+     */
+    static class Renters
+    {
+        private Student[] students = new Student[0];
+        private int[] next = new int[0], previous = new int[0];
+        private int head = NONE, tail = NONE, count, used, free = NONE;
+
+        /**
+         * Adds a student to the end of the list
+         * @param student The student
+         * @return The slot of the student
+         */
+        private int append(Student student)
+        {
+            int slot;
+            if (free != NONE)
+            {
+                slot = free;
+                free = next[slot];
+            }
+            else
+            {
+                if (used == students.length)
+                {
+                    int capacity = Math.max(4, used * 2);
+                    students = Arrays.copyOf(students, capacity);
+                    next = Arrays.copyOf(next, capacity);
+                    previous = Arrays.copyOf(previous, capacity);
+                }
+                slot = used++;
+            }
+            students[slot] = student;
+            next[slot] = NONE;
+            previous[slot] = tail;
+            if (tail == NONE) {head = slot;}
+            else {next[tail] = slot;}
+            tail = slot;
+            count++;
+            return slot;
+        }
+
+        /**
+         * Removes the student in a slot from the list
+         * @param slot The slot
+         */
+        private void unlink(int slot)
+        {
+            if (previous[slot] == NONE) {head = next[slot];}
+            else {next[previous[slot]] = next[slot];}
+            if (next[slot] == NONE) {tail = previous[slot];}
+            else {previous[next[slot]] = previous[slot];}
+            students[slot] = null;
+            next[slot] = free;
+            free = slot;
+            count--;
+        }
+
+        /**
+         * Returns the students in the list, in order
+         * @return The students
+         */
+        private ArrayList<Student> toList()
+        {
+            ArrayList<Student> renters = new ArrayList<>(count);
+            for (int slot = head; slot != NONE; slot = next[slot]) {renters.add(students[slot]);}
+            return renters;
+        }
+    }
+
+    /**
+     * The rentals of the students of one stripe. Every method is called while holding the stripe.
+     */
+    private static class Stripe
+    {
+        //The edges. A free edge is linked through nextOfStudent.
+        private Book[] edgeBook = new Book[16];
+        private int[] edgeStudent = new int[16], edgeSlot = new int[16];
+        private int[] nextOfStudent = new int[16], previousOfStudent = new int[16];
+        private int edgeCount, freeEdge = NONE;
+
+        //The due date of each edge and its position in the due date heap, NONE if it has no due date
+        private long[] edgeDue = new long[16];
+        private int[] heapPosition = new int[16];
+        private int[] dueHeap = new int[16];
+        private int dueCount;
+
+        //The students by id. A free id is linked through the head array.
+        private Student[] students = new Student[16];
+        private int[] studentHead = new int[16], studentTail = new int[16], studentDegree = new int[16];
+        private int studentCount, freeStudent = NONE;
+
+        //Open addressing table from the packed (book, student) pair to its edge
+        private long[] pairKeys = newKeys(32);
+        private int[] pairEdges = new int[32];
+        private int pairCount;
+
+        /**
+         * Records a rental unless it already exists
+         * @param book The book being rented
+         * @param student The student renting it
+         * @param dueDate The due date in milliseconds since the epoch, or NO_DUE_DATE
+         * @param slot The slot of the student in the book's Renters list
+         * @return True if the rental was added
+         */
+        private boolean add(Book book, Student student, long dueDate, int slot)
+        {
+            int studentId = studentIdOf(student);
+            long key = pack(book.bookId, studentId);
+            if (findSlot(key) >= 0) {return false;}
+
+            int edge = allocateEdge();
+            edgeBook[edge] = book;
+            edgeStudent[edge] = studentId;
+            edgeSlot[edge] = slot;
+
+            //Append to the end of the student's list to keep it in rental order
+            nextOfStudent[edge] = NONE;
+            previousOfStudent[edge] = studentTail[studentId];
+            if (studentTail[studentId] == NONE) {studentHead[studentId] = edge;}
+            else {nextOfStudent[studentTail[studentId]] = edge;}
+            studentTail[studentId] = edge;
+            studentDegree[studentId]++;
+
+            insertPair(key, edge);
+
+            edgeDue[edge] = dueDate;
+            heapPosition[edge] = NONE;
+            if (dueDate != NO_DUE_DATE) {heapInsert(edge);}
+            return true;
+        }
+
+        /**
+         * Removes a rental
+         * @param book The book being returned
+         * @param student The student returning it
+         * @return The slot of the student in the book's Renters list, or NONE if the student was not renting the book
+         */
+        private int remove(Book book, Student student)
+        {
+            int studentId = student.rentalId;
+            if (studentId == NONE) {return NONE;}
+            int slot = findSlot(pack(book.bookId, studentId));
+            if (slot < 0) {return NONE;}
+
+            int edge = pairEdges[slot];
+            deletePair(slot);
+
+            if (previousOfStudent[edge] == NONE) {studentHead[studentId] = nextOfStudent[edge];}
+            else {nextOfStudent[previousOfStudent[edge]] = nextOfStudent[edge];}
+            if (nextOfStudent[edge] == NONE) {studentTail[studentId] = previousOfStudent[edge];}
+            else {previousOfStudent[nextOfStudent[edge]] = previousOfStudent[edge];}
+
+            if (heapPosition[edge] != NONE) {heapRemove(edge);}
+            edgeBook[edge] = null;
+            nextOfStudent[edge] = freeEdge;
+            freeEdge = edge;
+
+            if (--studentDegree[studentId] == 0) {releaseStudent(studentId);}
+            return edgeSlot[edge];
+        }
+
+        /**
+         * Returns the edge of a rental
+         * @param book The book
+         * @param student The student
+         * @return The edge, or NONE if the student is not renting the book
+         */
+        private int edgeOf(Book book, Student student)
+        {
+            if (student.rentalId == NONE) {return NONE;}
+            int slot = findSlot(pack(book.bookId, student.rentalId));
+            return (slot < 0) ? NONE : pairEdges[slot];
+        }
+
+        /**
+         * Returns the rentals of the stripe whose due date has passed, earliest first. Only the overdue
+         * part of the heap is visited: the candidates are the root and the children of each rental taken
+         * so far, and the earliest candidate is taken next until it is not overdue or the limit is reached.
+         * @param now The current time in milliseconds since the epoch
+         * @param limit The most rentals to return
+         * @param overdue The list the overdue rentals are added to
+         */
+        private void overdue(long now, int limit, ArrayList<Loan> overdue)
+        {
+            if (dueCount == 0) {return;}
+
+            //A small min-heap of positions in the due date heap. A position's due date is never
+            //earlier than its parent's, so candidates come out in due date order.
+            int[] candidates = new int[16];
+            int candidateCount = 0, taken = 0;
+            candidates[candidateCount++] = 0;
+            while (candidateCount > 0 && taken < limit)
+            {
+                int position = candidates[0];
+                if (edgeDue[dueHeap[position]] > now) {break;}
+                overdue.add(loanOf(dueHeap[position]));
+                taken++;
+
+                candidates[0] = candidates[--candidateCount];
+                siftCandidate(candidates, candidateCount, 0);
+                for (int child = 2 * position + 1; child <= 2 * position + 2 && child < dueCount; child++)
+                {
+                    if (candidateCount == candidates.length) {candidates = Arrays.copyOf(candidates, candidateCount * 2);}
+                    int i = candidateCount++;
+                    while (i > 0 && dueAt(child) < dueAt(candidates[(i - 1) / 2]))
+                    {
+                        candidates[i] = candidates[(i - 1) / 2];
+                        i = (i - 1) / 2;
+                    }
+                    candidates[i] = child;
+                }
+            }
+        }
+
+        /**
+         * Returns the books a student is renting, in the order they were rented
+         * @param student The student
+         * @return The books the student is renting
+         */
+        private ArrayList<Book> booksOf(Student student)
+        {
+            int studentId = student.rentalId;
+            ArrayList<Book> rented = new ArrayList<>((studentId != NONE) ? studentDegree[studentId] : 0);
+            if (studentId == NONE) {return rented;}
+            for (int edge = studentHead[studentId]; edge != NONE; edge = nextOfStudent[edge])
+            {
+                rented.add(edgeBook[edge]);
+            }
+            return rented;
+        }
+
+        /**
+         * Returns the id of a student, assigning one if it has none
+         * @param student The student
+         * @return The id of the student
+         */
+        private int studentIdOf(Student student)
+        {
+            if (student.rentalId != NONE) {return student.rentalId;}
+            int id;
+            if (freeStudent != NONE)
+            {
+                id = freeStudent;
+                freeStudent = studentHead[id];
+            }
+            else
+            {
+                id = studentCount++;
+                if (id == students.length)
+                {
+                    int capacity = students.length * 2;
+                    students = Arrays.copyOf(students, capacity);
+                    studentHead = Arrays.copyOf(studentHead, capacity);
+                    studentTail = Arrays.copyOf(studentTail, capacity);
+                    studentDegree = Arrays.copyOf(studentDegree, capacity);
+                }
+            }
+            students[id] = student;
+            studentHead[id] = studentTail[id] = NONE;
+            studentDegree[id] = 0;
+            student.rentalId = id;
+            return id;
+        }
+
+        /**
+         * Gives up the id of a student that has no rentals left
+         * @param id The id of the student
+         */
+        private void releaseStudent(int id)
+        {
+            students[id].rentalId = NONE;
+            students[id] = null;
+            studentHead[id] = freeStudent;
+            freeStudent = id;
+        }
+
+        /**
+         * Returns a free edge, growing the edge arrays if there is none
+         * @return The edge
+         */
+        private int allocateEdge()
+        {
+            if (freeEdge != NONE)
+            {
+                int edge = freeEdge;
+                freeEdge = nextOfStudent[edge];
+                return edge;
+            }
+            if (edgeCount == edgeBook.length)
+            {
+                int capacity = edgeBook.length * 2;
+                edgeBook = Arrays.copyOf(edgeBook, capacity);
+                edgeStudent = Arrays.copyOf(edgeStudent, capacity);
+                edgeSlot = Arrays.copyOf(edgeSlot, capacity);
+                nextOfStudent = Arrays.copyOf(nextOfStudent, capacity);
+                previousOfStudent = Arrays.copyOf(previousOfStudent, capacity);
+                edgeDue = Arrays.copyOf(edgeDue, capacity);
+                heapPosition = Arrays.copyOf(heapPosition, capacity);
+            }
+            return edgeCount++;
+        }
+
+        /**
+         * Returns a rental as a Loan
+         * @param edge The edge of the rental
+         * @return The loan
+         */
+        private Loan loanOf(int edge) {return new Loan(edgeBook[edge], students[edgeStudent[edge]], edgeDue[edge]);}
+
+        /**
+         * Returns the due date of the edge at a position of the due date heap
+         * @param position The position in the heap
+         * @return The due date
+         */
+        private long dueAt(int position) {return edgeDue[dueHeap[position]];}
+
+        /**
+         * Moves the candidate at a position down the candidate heap until it is in order
+         * @param candidates The candidate heap of due date heap positions
+         * @param count The number of candidates
+         * @param i The position of the candidate to move
+         */
+        private void siftCandidate(int[] candidates, int count, int i)
+        {
+            int candidate = candidates[i];
+            while (2 * i + 1 < count)
+            {
+                int child = 2 * i + 1;
+                if (child + 1 < count && dueAt(candidates[child + 1]) < dueAt(candidates[child])) {child++;}
+                if (dueAt(candidates[child]) >= dueAt(candidate)) {break;}
+                candidates[i] = candidates[child];
+                i = child;
+            }
+            candidates[i] = candidate;
+        }
+
+        /**
+         * Adds an edge to the due date heap
+         * @param edge The edge, which has a due date
+         */
+        private void heapInsert(int edge)
+        {
+            if (dueCount == dueHeap.length) {dueHeap = Arrays.copyOf(dueHeap, dueCount * 2);}
+            dueHeap[dueCount] = edge;
+            heapPosition[edge] = dueCount;
+            siftUp(dueCount++);
+        }
+
+        /**
+         * Removes an edge from the due date heap, filling its place with the last edge of the heap
+         * @param edge The edge, which is in the heap
+         */
+        private void heapRemove(int edge)
+        {
+            int position = heapPosition[edge];
+            heapPosition[edge] = NONE;
+            int last = dueHeap[--dueCount];
+            if (position == dueCount) {return;}
+
+            dueHeap[position] = last;
+            heapPosition[last] = position;
+            if (position > 0 && edgeDue[last] < dueAt((position - 1) / 2)) {siftUp(position);}
+            else {siftDown(position);}
+        }
+
+        /**
+         * Moves the edge at a position up the due date heap until its parent is due no later
+         * @param position The position of the edge
+         */
+        private void siftUp(int position)
+        {
+            int edge = dueHeap[position];
+            while (position > 0)
+            {
+                int parent = (position - 1) / 2;
+                if (dueAt(parent) <= edgeDue[edge]) {break;}
+                dueHeap[position] = dueHeap[parent];
+                heapPosition[dueHeap[position]] = position;
+                position = parent;
+            }
+            dueHeap[position] = edge;
+            heapPosition[edge] = position;
+        }
+
+        /**
+         * Moves the edge at a position down the due date heap until its children are due no earlier
+         * @param position The position of the edge
+         */
+        private void siftDown(int position)
+        {
+            int edge = dueHeap[position];
+            while (2 * position + 1 < dueCount)
+            {
+                int child = 2 * position + 1;
+                if (child + 1 < dueCount && dueAt(child + 1) < dueAt(child)) {child++;}
+                if (dueAt(child) >= edgeDue[edge]) {break;}
+                dueHeap[position] = dueHeap[child];
+                heapPosition[dueHeap[position]] = position;
+                position = child;
+            }
+            dueHeap[position] = edge;
+            heapPosition[edge] = position;
+        }
+
+        /**
+         * Returns the home slot of a key
+         * @param key The key
+         * @return The slot the probe for the key starts at
+         */
+        private int homeOf(long key)
+        {
+            //The finalizer of MurmurHash3 spreads the ids over the whole table
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return (int)key & (pairKeys.length - 1);
+        }
+
+        /**
+         * Returns the slot holding a key
+         * @param key The key
+         * @return The slot, or -1 if the key is not in the table
+         */
+        private int findSlot(long key)
+        {
+            int mask = pairKeys.length - 1;
+            for (int slot = homeOf(key); pairKeys[slot] != EMPTY; slot = (slot + 1) & mask)
+            {
+                if (pairKeys[slot] == key) {return slot;}
+            }
+            return -1;
+        }
+
+        /**
+         * Adds a key that is not in the table, growing it to stay at most half full
+         * @param key The key
+         * @param edge The edge of the key
+         */
+        private void insertPair(long key, int edge)
+        {
+            if (++pairCount * 2 > pairKeys.length)
+            {
+                long[] oldKeys = pairKeys;
+                int[] oldEdges = pairEdges;
+                pairKeys = newKeys(oldKeys.length * 2);
+                pairEdges = new int[oldKeys.length * 2];
+                for (int i = 0; i < oldKeys.length; i++)
+                {
+                    if (oldKeys[i] != EMPTY) {place(oldKeys[i], oldEdges[i]);}
+                }
+            }
+            place(key, edge);
+        }
+
+        /**
+         * Stores a key in the first empty slot of its probe sequence
+         * @param key The key
+         * @param edge The edge of the key
+         */
+        private void place(long key, int edge)
+        {
+            int mask = pairKeys.length - 1, slot = homeOf(key);
+            while (pairKeys[slot] != EMPTY) {slot = (slot + 1) & mask;}
+            pairKeys[slot] = key;
+            pairEdges[slot] = edge;
+        }
+
+        /**
+         * Empties a slot, shifting later keys of the same probe sequence back so lookups still find them
+         * @param slot The slot to empty
+         */
+        private void deletePair(int slot)
+        {
+            int mask = pairKeys.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; pairKeys[next] != EMPTY; next = (next + 1) & mask)
+            {
+                //A key can fill the hole if the hole lies on its probe sequence
+                int home = homeOf(pairKeys[next]);
+                if (((next - home) & mask) >= ((next - hole) & mask))
+                {
+                    pairKeys[hole] = pairKeys[next];
+                    pairEdges[hole] = pairEdges[next];
+                    hole = next;
+                }
+            }
+            pairKeys[hole] = EMPTY;
+            pairCount--;
+        }
+    }
+
+    /**
+     * Creates the relation shared by the library
+     */
+    private RentalRelation()
+    {
+        for (int i = 0; i < STRIPES; i++) {stripes[i] = new Stripe();}
+    }
+
+    /**
+     * Returns the relation shared by the books and students of the library
+     * @return The relation
+     */
+    public static RentalRelation getDefault() {return DEFAULT;}
+
+    /**
+     * Returns a new key array with every slot empty
+     * @param capacity The number of slots, a power of two
+     * @return The key array
+     */
+    private static long[] newKeys(int capacity)
+    {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    /**
+     * Returns the stripe number of a new student. Identity hashes are not used because hashing
+     * a student whose monitor is held inflates the monitor.
+     * @return The stripe number, taken modulo the number of stripes
+     */
+    static int nextStudentStripe() {return STUDENT_STRIPES.getAndIncrement();}
+
+    /**
+     * Returns the id of a new book, which keys its rentals in the stripes
+     * @return The id of the book
+     */
+    static int nextBookId() {return BOOK_IDS.getAndIncrement();}
+
+    /**
+     * Returns the stripe holding the rentals of a student
+     * @param student The student
+     * @return The stripe of the student
+     */
+    private Stripe stripeOf(Student student) {return stripes[student.rentalStripe & (STRIPES - 1)];}
+
+    /**
+     * Records that a student is renting a book with no due date. Nothing changes if the rental
+     * already exists.
+     * @param book The book being rented
+     * @param student The student renting it
+     * @return True if the rental was added
+     */
+    public boolean add(Book book, Student student) {return add(book, student, NO_DUE_DATE);}
+
+    /**
+     * Records that a student is renting a book until a due date. Nothing changes if the rental
+     * already exists.
+     * @param book The book being rented
+     * @param student The student renting it
+     * @param dueDate The due date in milliseconds since the epoch, or NO_DUE_DATE
+     * @return True if the rental was added
+     */
+    public boolean add(Book book, Student student, long dueDate)
+    {
+        Stripe stripe = stripeOf(student);
+        synchronized (book)
+        {
+            //The slot is taken up front so the stripe is only locked once, and given back if the rental exists
+            if (book.renters == null) {book.renters = new Renters();}
+            int slot = book.renters.append(student);
+            boolean added;
+            synchronized (stripe) {added = stripe.add(book, student, dueDate, slot);}
+            if (!added) {book.renters.unlink(slot);}
+            return added;
+        }
+    }
+
+    /**
+     * Removes the record of a student renting a book
+     * @param book The book being returned
+     * @param student The student returning it
+     * @return True if the student was renting the book
+     */
+    public boolean remove(Book book, Student student)
+    {
+        Stripe stripe = stripeOf(student);
+        synchronized (book)
+        {
+            int slot;
+            synchronized (stripe) {slot = stripe.remove(book, student);}
+            if (slot == NONE) {return false;}
+            book.renters.unlink(slot);
+            return true;
+        }
+    }
+
+    /**
+     * Returns true if the student is renting the book. Only the student's stripe is locked.
+     * @param book The book
+     * @param student The student
+     * @return True if the student is renting the book
+     */
+    public boolean contains(Book book, Student student)
+    {
+        Stripe stripe = stripeOf(student);
+        synchronized (stripe) {return stripe.edgeOf(book, student) != NONE;}
+    }
+
+    /**
+     * Returns the due date of a rental. Only the student's stripe is locked.
+     * @param book The book
+     * @param student The student
+     * @return The due date in milliseconds since the epoch, or NO_DUE_DATE if the rental has
+     * none or the student is not renting the book
+     */
+    public long dueDate(Book book, Student student)
+    {
+        Stripe stripe = stripeOf(student);
+        synchronized (stripe)
+        {
+            int edge = stripe.edgeOf(book, student);
+            return (edge == NONE) ? NO_DUE_DATE : stripe.edgeDue[edge];
+        }
+    }
+
+    /**
+     * Returns the rental that falls due first, comparing the root of every stripe's heap
+     * @return The rental, or null if no rental has a due date
+     */
+    public Loan nextDue()
+    {
+        Loan next = null;
+        for (Stripe stripe : stripes)
+        {
+            synchronized (stripe)
+            {
+                if (stripe.dueCount > 0 && (next == null || stripe.dueAt(0) < next.getDueDate()))
+                {
+                    next = stripe.loanOf(stripe.dueHeap[0]);
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns the rentals whose due date has passed, earliest first. Each stripe lists at most
+     * limit of its own overdue rentals, and the earliest limit of those are kept.
+     * @param now The current time in milliseconds since the epoch
+     * @param limit The most rentals to return
+     * @return The overdue rentals in order of due date
+     */
+    public ArrayList<Loan> overdue(long now, int limit)
+    {
+        ArrayList<Loan> overdue = new ArrayList<>();
+        if (limit <= 0) {return overdue;}
+        for (Stripe stripe : stripes)
+        {
+            synchronized (stripe) {stripe.overdue(now, limit, overdue);}
+        }
+        overdue.sort(Comparator.comparingLong(Loan::getDueDate));
+        if (overdue.size() > limit) {overdue.subList(limit, overdue.size()).clear();}
+        return overdue;
+    }
+
+    /**
+     * Returns the number of rentals with a due date
+     * @return The number of rentals with a due date
+     */
+    public int dueCount()
+    {
+        int count = 0;
+        for (Stripe stripe : stripes)
+        {
+            synchronized (stripe) {count += stripe.dueCount;}
+        }
+        return count;
+    }
+
+    /**
+     * Returns the students renting a book, in the order they rented it
+     * @param book The book
+     * @return The renters of the book
+     */
+    public ArrayList<Student> rentersOf(Book book)
+    {
+        synchronized (book) {return (book.renters != null) ? book.renters.toList() : new ArrayList<>();}
+    }
+
+    /**
+     * Returns the books a student is renting, in the order they were rented
+     * @param student The student
+     * @return The books the student is renting
+     */
+    public ArrayList<Book> booksOf(Student student)
+    {
+        Stripe stripe = stripeOf(student);
+        synchronized (stripe) {return stripe.booksOf(student);}
+    }
+
+    /**
+     * Returns the number of students renting a book
+     * @param book The book
+     * @return The number of renters
+     */
+    public int renterCount(Book book)
+    {
+        synchronized (book) {return (book.renters != null) ? book.renters.count : 0;}
+    }
+
+    /**
+     * Returns the number of books a student is renting
+     * @param student The student
+     * @return The number of books the student is renting
+     */
+    public int bookCount(Student student)
+    {
+        Stripe stripe = stripeOf(student);
+        synchronized (stripe) {return (student.rentalId != NONE) ? stripe.studentDegree[student.rentalId] : 0;}
+    }
+
+    /**
+     * Returns the number of rentals
+     * @return The number of rentals
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Stripe stripe : stripes)
+        {
+            synchronized (stripe) {size += stripe.pairCount;}
+        }
+        return size;
+    }
+
+    /**
+     * Packs a book id and a student id into a single key
+     * @param bookId The id of the book
+     * @param studentId The id of the student
+     * @return The key, which is never EMPTY
+     */
+    private static long pack(int bookId, int studentId) {return ((long)bookId << 32) | (studentId & 0xFFFFFFFFL);}
+}
@@ -0,0 +1,365 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Streams book reports to a channel without String.format. Books are rendered into a reusable
+ * character buffer, which is copied into a reusable char array for the encoder, encoded into a
+ * reusable byte buffer and written out whenever it fills up, so exporting the whole catalog creates no per-field strings and writes in large
+ * blocks. Reports can be written as the console text used by Book.toString, as TSV or as JSON.
+ * @author Dillon Evans
+ */
+public class ReportWriter implements AutoCloseable
+{
+    /**
+     * The supported report formats
+     */
+    public enum Format {TEXT, TSV, JSON}
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String TSV_HEADER = "Title\tISBN\tDOI\tSubject\tExpected Publication Date\tFirst Author\t"
+        + "Second Author\tFirst Author Affiliation\tSecond Author Affiliation\tAvailable\tRenters\n";
+
+    private WritableByteChannel channel;
+    private boolean ownsChannel;
+    private Format format;
+    private CharsetEncoder encoder;
+    private StringBuilder text = new StringBuilder(BUFFER_SIZE);
+    private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE * 2);
+    private ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE * 4);
+
+    /**
+     * Creates a new ReportWriter
+     * @param channel The channel to write to
+     * @param ownsChannel True if closing the writer should close the channel
+     * @param format The format of the report
+     * @param charset The character set to encode the report with
+     */
+    public ReportWriter(WritableByteChannel channel, boolean ownsChannel, Format format, Charset charset)
+    {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.format = format;
+        this.encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Creates a ReportWriter that writes to a print stream such as System.out. The stream is
+     * not closed when the writer is, and the report keeps its position relative to anything
+     * else printed to the stream.
+     * @param out The stream to write to
+     * @param format The format of the report
+     * @return The new ReportWriter
+     */
+    public static ReportWriter toStream(PrintStream out, Format format)
+    {
+        String encoding = System.getProperty("sun.stdout.encoding");
+        Charset charset = (encoding != null && Charset.isSupported(encoding)) ? Charset.forName(encoding) : Charset.defaultCharset();
+        return new ReportWriter(Channels.newChannel(out), false, format, charset);
+    }
+
+    /**
+     * Creates a ReportWriter that writes a UTF-8 report to a file, replacing its contents
+     * @param file The file to write to
+     * @param format The format of the report
+     * @return The new ReportWriter
+     * @throws IOException If the file cannot be opened
+     */
+    public static ReportWriter toFile(Path file, Format format) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        return new ReportWriter(channel, true, format, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a complete report of the books, including the TSV header or the enclosing JSON array
+     * @param books The books to report on
+     * @throws IOException If the report could not be written
+     */
+    public void writeBooks(Iterable<Book> books) throws IOException
+    {
+        boolean first = true;
+        if (format == Format.TSV) {text.append(TSV_HEADER);}
+        else if (format == Format.JSON) {text.append('[');}
+
+        for (Book book : books)
+        {
+            if (format == Format.JSON) {text.append(first ? "\n  " : ",\n  ");}
+            writeBook(book);
+            first = false;
+        }
+
+        if (format == Format.JSON) {text.append(first ? "]\n" : "\n]\n");}
+        flush();
+    }
+
+    /**
+     * Writes a single book. TEXT books are followed by a blank line, like ElementList.print,
+     * and TSV books by a newline.
+     * @param book The book to write
+     * @throws IOException If the buffer had to be written out and that failed
+     */
+    public void writeBook(Book book) throws IOException
+    {
+        synchronized (book)
+        {
+            switch (format)
+            {
+                case TEXT: appendText(text, book).append('\n'); break;
+                case TSV: appendTsv(book); break;
+                default: appendJson(text, book); break;
+            }
+        }
+        if (text.length() >= BUFFER_SIZE) {drain(false);}
+    }
+
+    /**
+     * Renders a book in the console format used by Book.toString
+     * @param out The builder to render into
+     * @param book The book to render
+     * @return The builder
+     */
+    public static StringBuilder appendText(StringBuilder out, Book book)
+    {
+        out.append("Title: ").append(book.getTitle()).append('\n');
+        out.append("First Author: ").append(book.getFirstAuthor()).append(", ").append(book.getFirstAuthorAffiliation()).append('\n');
+        if (book.hasSecondAuthor())
+        {
+            out.append("Second Author: ");
+            padLeft(out, book.getSecondAuthor(), 10).append(", ").append(book.getSecondAuthorAffiliation()).append('\n');
+        }
+        out.append("Expected Publication Date: ").append(book.getExpectedPublicationDate()).append('\n');
+        padRight(out.append("ISBN: "), book.getISBN(), 30).append('\n');
+        padRight(out.append("DOI:  "), book.getDOI(), 30).append('\n');
+        padRight(out.append("Subject: "), book.getSubjectCategory(), 30).append('\n');
+        padRight(out.append("Available: "), Integer.toString(book.getNumberOfCopies()), 30).append('\n');
+        List<Student> renters = book.getRenters();
+        if (!renters.isEmpty())
+        {
+            out.append("Renter List:\n");
+            for (Student renter : renters)
+            {
+                out.append(renter).append('\n');
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Renders a book as a single TSV row
+     * @param book The book to render
+     */
+    private void appendTsv(Book book)
+    {
+        appendTsvField(book.getTitle()).append('\t');
+        appendTsvField(book.getISBN()).append('\t');
+        appendTsvField(book.getDOI()).append('\t');
+        appendTsvField(book.getSubjectCategory()).append('\t');
+        appendTsvField(book.getExpectedPublicationDate()).append('\t');
+        appendTsvField(book.getFirstAuthor()).append('\t');
+        appendTsvField(book.hasSecondAuthor() ? book.getSecondAuthor() : "").append('\t');
+        appendTsvField(book.getFirstAuthorAffiliation()).append('\t');
+        appendTsvField(book.getSecondAuthorAffiliation()).append('\t');
+        text.append(book.getNumberOfCopies()).append('\t');
+
+        boolean first = true;
+        for (Student renter : book.getRenters())
+        {
+            if (!first) {text.append(';');}
+            appendTsvField(renter.getName());
+            first = false;
+        }
+        text.append('\n');
+    }
+
+    /**
+     * Appends a TSV field, replacing the tabs and newlines that would break the row with spaces
+     * @param value The value of the field
+     * @return The text buffer
+     */
+    private StringBuilder appendTsvField(String value)
+    {
+        if (value == null) {return text;}
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            text.append((c == '\t' || c == '\n' || c == '\r') ? ' ' : c);
+        }
+        return text;
+    }
+
+    /**
+     * Renders a book as a JSON object
+     * @param out The builder to render into
+     * @param book The book to render
+     * @return The builder
+     */
+    public static StringBuilder appendJson(StringBuilder out, Book book)
+    {
+        out.append('{');
+        appendJsonField(out, "title", book.getTitle()).append(", ");
+        appendJsonField(out, "isbn", book.getISBN()).append(", ");
+        appendJsonField(out, "doi", book.getDOI()).append(", ");
+        appendJsonField(out, "subject", book.getSubjectCategory()).append(", ");
+        appendJsonField(out, "expectedPublicationDate", book.getExpectedPublicationDate()).append(", ");
+        appendJsonField(out, "firstAuthor", book.getFirstAuthor()).append(", ");
+        appendJsonField(out, "firstAuthorAffiliation", book.getFirstAuthorAffiliation()).append(", ");
+        appendJsonField(out, "secondAuthor", book.hasSecondAuthor() ? book.getSecondAuthor() : null).append(", ");
+        appendJsonField(out, "secondAuthorAffiliation", book.hasSecondAuthor() ? book.getSecondAuthorAffiliation() : null).append(", ");
+        out.append("\"available\": ").append(book.getNumberOfCopies()).append(", \"renters\": [");
+
+        boolean first = true;
+        for (Student renter : book.getRenters())
+        {
+            if (!first) {out.append(", ");}
+            appendJsonString(out, renter.getName());
+            first = false;
+        }
+        return out.append("]}");
+    }
+
+    /**
+     * Appends a "name": value pair
+     * @param out The builder to append to
+     * @param name The name of the field
+     * @param value The value of the field, written as null if missing
+     * @return The builder
+     */
+    public static StringBuilder appendJsonField(StringBuilder out, String name, String value)
+    {
+        out.append('"').append(name).append("\": ");
+        return appendJsonString(out, value);
+    }
+
+    /**
+     * Appends a JSON string literal, escaping quotes, backslashes and control characters
+     * @param out The builder to append to
+     * @param value The string to append
+     * @return The builder
+     */
+    public static StringBuilder appendJsonString(StringBuilder out, String value)
+    {
+        if (value == null) {return out.append("null");}
+        out.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                    {
+                        String hex = Integer.toHexString(c);
+                        out.append("\\u");
+                        for (int pad = hex.length(); pad < 4; pad++) {out.append('0');}
+                        out.append(hex);
+                    }
+                    else {out.append(c);}
+            }
+        }
+        return out.append('"');
+    }
+
+    /**
+     * Appends a value right justified in a field of the given width, like %10s
+     * @param out The builder to append to
+     * @param value The value to append
+     * @param width The minimum width of the field
+     * @return The builder
+     */
+    private static StringBuilder padLeft(StringBuilder out, String value, int width)
+    {
+        String shown = String.valueOf(value);
+        for (int i = shown.length(); i < width; i++) {out.append(' ');}
+        return out.append(shown);
+    }
+
+    /**
+     * Appends a value left justified in a field of the given width, like %-30s
+     * @param out The builder to append to
+     * @param value The value to append
+     * @param width The minimum width of the field
+     * @return The builder
+     */
+    private static StringBuilder padRight(StringBuilder out, String value, int width)
+    {
+        String shown = String.valueOf(value);
+        out.append(shown);
+        for (int i = shown.length(); i < width; i++) {out.append(' ');}
+        return out;
+    }
+
+    /**
+     * Encodes the text buffer and writes it to the channel
+     * @param endOfInput True if no more text will follow
+     * @throws IOException If the channel could not be written
+     */
+    private void drain(boolean endOfInput) throws IOException
+    {
+        //The encoder works on the array of a heap buffer directly, but goes through charAt for a
+        //wrapped StringBuilder
+        int length = text.length();
+        if (chars.capacity() < length) {chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));}
+        chars.clear();
+        text.getChars(0, length, chars.array(), 0);
+        chars.limit(length);
+        while (true)
+        {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow() || (result.isUnderflow() && bytes.position() > 0))
+            {
+                bytes.flip();
+                while (bytes.hasRemaining()) {channel.write(bytes);}
+                bytes.clear();
+            }
+            if (result.isUnderflow()) {break;}
+        }
+
+        //A surrogate pair split across flushes stays in the buffer for the next drain
+        text.delete(0, chars.position());
+    }
+
+    /**
+     * Writes out everything rendered so far
+     * @throws IOException If the channel could not be written
+     */
+    public void flush() throws IOException
+    {
+        drain(false);
+    }
+
+    /**
+     * Flushes the report and closes the channel if the writer owns it
+     * @throws IOException If the channel could not be written or closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        drain(true);
+        encoder.flush(bytes);
+        bytes.flip();
+        while (bytes.hasRemaining()) {channel.write(bytes);}
+        bytes.clear();
+        if (ownsChannel) {channel.close();}
+    }
+}
@@ -0,0 +1,343 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A shared-nothing rental engine. The catalog is partitioned by title hash into shards, and each
+ * shard owns its books, their renters and waitlists, and the loans of its books by student. A
+ * shard is only ever touched by its own thread, which takes rent and return commands from a
+ * bounded mailbox, so no locks are taken while the commands are processed and the shards scale
+ * with the number of cores. Callers that fill a mailbox block until the shard catches up.
+ *
+ * Every command completes a future with its outcome. A waitlisted student is promoted by the same
+ * shard when a copy is returned, since the waitlist lives with the book. Returning every book of a
+ * student is sent to every shard and the results are combined once all of them have answered,
+ * so it never holds more than one shard at a time and needs no global lock.
+ *
+ * Titles and students are translated to their IdRegistry ids on the calling thread, so a shard
+ * works on the int arrays of its RentalModel and never compares a string. Students are told apart
+ * by name, ignoring case, and a book whose title is already in the engine is left out.
+ *
+ * The books handed to the engine must not be used through Book.checkOut or Book.checkIn while it
+ * runs. Their copy counts are kept by their shard, away from the catalog pages other shards write
+ * to, and are written back to the books when the engine shuts down.
+ * @author Dillon Evans
+ */
+public class ShardedLibrary
+{
+    /**
+     * The outcome of a rent or return command
+     */
+    public enum Outcome {RENTED, WAITLISTED, ALREADY_RENTING, ALREADY_WAITLISTED, RETURNED, NOT_RENTING, NO_SUCH_BOOK}
+
+    /**
+     * A command in a shard's mailbox
+     */
+    private static class Command
+    {
+        private static final int RENT = 0, RETURN = 1, RETURN_ALL = 2, SYNC = 3, STOP = 4;
+
+        private int type, studentId, titleId;
+        private CompletableFuture<Object> result = new CompletableFuture<>();
+
+        /**
+         * Creates a new Command object
+         * @param type The type of the command
+         * @param studentId The id of the student, if any
+         * @param titleId The id of the title of the book, if any
+         */
+        private Command(int type, int studentId, int titleId)
+        {
+            this.type = type;
+            this.studentId = studentId;
+            this.titleId = titleId;
+        }
+    }
+
+    /**
+     * A partition of the catalog with the thread that owns it
+     */
+    private static class Shard implements Runnable
+    {
+        private static final int BATCH_SIZE = 256;
+
+        private ArrayBlockingQueue<Command> mailbox;
+        private RentalModel rentals = new RentalModel();
+        private ArrayList<Book> books = new ArrayList<>();
+        private Thread thread;
+
+        /**
+         * Creates a new Shard object
+         * @param mailboxCapacity The most commands that can wait in the mailbox
+         */
+        private Shard(int mailboxCapacity)
+        {
+            mailbox = new ArrayBlockingQueue<>(mailboxCapacity);
+        }
+
+        /**
+         * Puts a command in the mailbox, waiting while it is full
+         * @param command The command
+         */
+        private void send(Command command)
+        {
+            try
+            {
+                mailbox.put(command);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                command.result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Processes commands until told to stop, taking them from the mailbox in batches
+         */
+        @Override
+        public void run()
+        {
+            ArrayList<Command> batch = new ArrayList<>(BATCH_SIZE);
+            try
+            {
+                while (true)
+                {
+                    batch.add(mailbox.take());
+                    mailbox.drainTo(batch, BATCH_SIZE - 1);
+                    for (Command command : batch)
+                    {
+                        if (command.type == Command.STOP)
+                        {
+                            for (int slot = 0; slot < books.size(); slot++) {books.get(slot).setNumberOfCopies(rentals.copiesOf(slot));}
+                            command.result.complete(null);
+                            return;
+                        }
+                        try
+                        {
+                            command.result.complete(process(command));
+                        }
+                        catch (RuntimeException e)
+                        {
+                            command.result.completeExceptionally(e);
+                        }
+                    }
+                    batch.clear();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                //The engine was shut down abruptly
+            }
+        }
+
+        /**
+         * Processes a single command
+         * @param command The command
+         * @return The outcome, or the number of books returned by RETURN_ALL
+         */
+        private Object process(Command command)
+        {
+            switch (command.type)
+            {
+                case Command.RENT: return rent(command.studentId, rentals.slotOf(command.titleId));
+                case Command.RETURN: return giveBack(command.studentId, rentals.slotOf(command.titleId));
+                case Command.RETURN_ALL: return returnAll(command.studentId);
+                default: return null;
+            }
+        }
+
+        /**
+         * Rents a copy of a book to a student or puts them on its waitlist
+         * @param studentId The id of the student
+         * @param slot The slot of the book, or NONE if it is not in the catalog
+         * @return The outcome
+         */
+        private Outcome rent(int studentId, int slot)
+        {
+            if (slot == RentalModel.NONE) {return Outcome.NO_SUCH_BOOK;}
+            if (rentals.isRenting(slot, studentId)) {return Outcome.ALREADY_RENTING;}
+            if (rentals.isWaiting(slot, studentId)) {return Outcome.ALREADY_WAITLISTED;}
+
+            if (rentals.copiesOf(slot) <= 0)
+            {
+                rentals.enqueue(slot, studentId);
+                return Outcome.WAITLISTED;
+            }
+            rentals.rent(slot, studentId);
+            return Outcome.RENTED;
+        }
+
+        /**
+         * Returns a student's copy of a book, renting it to the head of the waitlist
+         * @param studentId The id of the student
+         * @param slot The slot of the book, or NONE if it is not in the catalog
+         * @return The outcome
+         */
+        private Outcome giveBack(int studentId, int slot)
+        {
+            if (slot == RentalModel.NONE) {return Outcome.NO_SUCH_BOOK;}
+            return (rentals.giveBack(slot, studentId) == RentalModel.NOT_RENTING) ? Outcome.NOT_RENTING : Outcome.RETURNED;
+        }
+
+        /**
+         * Returns every book of this shard that a student is renting
+         * @param studentId The id of the student
+         * @return The number of books returned
+         */
+        private Integer returnAll(int studentId)
+        {
+            int returned = 0;
+            for (int slot = rentals.anyLoanOf(studentId); slot != RentalModel.NONE; slot = rentals.anyLoanOf(studentId))
+            {
+                rentals.giveBack(slot, studentId);
+                returned++;
+            }
+            return returned;
+        }
+    }
+
+    private Shard[] shards;
+
+    /**
+     * Creates a new ShardedLibrary and starts a thread for every shard
+     * @param shardCount The number of shards
+     * @param mailboxCapacity The most commands that can wait in each shard's mailbox
+     * @param books The books of the catalog
+     */
+    public ShardedLibrary(int shardCount, int mailboxCapacity, Iterable<Book> books)
+    {
+        if (shardCount < 1 || mailboxCapacity < 1) {throw new IllegalArgumentException("There must be at least one shard and mailbox slot.");}
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {shards[i] = new Shard(mailboxCapacity);}
+
+        //The shards are filled before their threads start, which publishes the slices to them
+        for (Book book : books)
+        {
+            Shard shard = shards[shardOfId(book.getTitleId())];
+            if (shard.rentals.addBook(book.getTitleId(), book.getNumberOfCopies()) == shard.books.size()) {shard.books.add(book);}
+        }
+        for (int i = 0; i < shardCount; i++)
+        {
+            shards[i].thread = new Thread(shards[i], "library-shard-" + i);
+            shards[i].thread.setDaemon(true);
+            shards[i].thread.start();
+        }
+    }
+
+    /**
+     * Returns the shard that owns a title id
+     * @param titleId The id of the title
+     * @return The index of the shard
+     */
+    private int shardOfId(int titleId) {return Math.floorMod(titleId * 0x9E3779B9, shards.length);}
+
+    /**
+     * Returns the number of shards
+     * @return The number of shards
+     */
+    public int getShardCount() {return shards.length;}
+
+    /**
+     * Rents a book to a student, or puts the student on its waitlist
+     * @param student The student
+     * @param title The title of the book
+     * @return The outcome, once the book's shard has processed the command
+     */
+    public CompletableFuture<Outcome> rent(Student student, String title)
+    {
+        return send(Command.RENT, student, title);
+    }
+
+    /**
+     * Returns a student's copy of a book
+     * @param student The student
+     * @param title The title of the book
+     * @return The outcome, once the book's shard has processed the command
+     */
+    public CompletableFuture<Outcome> returnBook(Student student, String title)
+    {
+        return send(Command.RETURN, student, title);
+    }
+
+    /**
+     * Returns every book a student is renting. Every shard returns its own books, and the
+     * result is available once all of them have.
+     * @param student The student
+     * @return The number of books returned
+     */
+    public CompletableFuture<Integer> returnAll(Student student)
+    {
+        List<CompletableFuture<Integer>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++)
+        {
+            parts.add(submit(i, new Command(Command.RETURN_ALL, idOf(student), RentalModel.NONE)));
+        }
+
+        CompletableFuture<Integer> total = CompletableFuture.completedFuture(0);
+        for (CompletableFuture<Integer> part : parts) {total = total.thenCombine(part, Integer::sum);}
+        return total;
+    }
+
+    /**
+     * Returns a future that completes once every command sent before it has been processed
+     * @return The future
+     */
+    public CompletableFuture<Void> sync()
+    {
+        CompletableFuture<?>[] parts = new CompletableFuture<?>[shards.length];
+        for (int i = 0; i < shards.length; i++) {parts[i] = submit(i, new Command(Command.SYNC, RentalModel.NONE, RentalModel.NONE));}
+        return CompletableFuture.allOf(parts);
+    }
+
+    /**
+     * Processes the commands already sent, writes the copy counts back to the books and
+     * stops every shard thread
+     * @throws InterruptedException If interrupted while waiting for the shards to stop
+     */
+    public void shutdown() throws InterruptedException
+    {
+        for (Shard shard : shards) {shard.send(new Command(Command.STOP, RentalModel.NONE, RentalModel.NONE));}
+        for (Shard shard : shards) {shard.thread.join();}
+    }
+
+    /**
+     * Translates a rent or return to ids and sends it to the shard of the title. A title that
+     * was never interned is not in the catalog, so it is answered without a shard.
+     * @param type The type of the command
+     * @param student The student
+     * @param title The title of the book
+     * @return The future outcome of the command
+     */
+    private CompletableFuture<Outcome> send(int type, Student student, String title)
+    {
+        int studentId = idOf(student), titleId = IdRegistry.titles().find(title);
+        if (titleId < 0) {return CompletableFuture.completedFuture(Outcome.NO_SUCH_BOOK);}
+        return submit(shardOfId(titleId), new Command(type, studentId, titleId));
+    }
+
+    /**
+     * Returns the id of a student
+     * @param student The student
+     * @return The id of the student's name
+     */
+    private static int idOf(Student student)
+    {
+        if (student.getId() < 0) {throw new IllegalArgumentException("The student has no name.");}
+        return student.getId();
+    }
+
+    /**
+     * Sends a command to a shard
+     * @param shard The index of the shard
+     * @param command The command
+     * @return The future result of the command
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> submit(int shard, Command command)
+    {
+        shards[shard].send(command);
+        return (CompletableFuture<T>)(CompletableFuture<?>)command.result;
+    }
+}
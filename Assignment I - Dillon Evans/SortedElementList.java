@@ -0,0 +1,307 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list that keeps its elements sorted by name, ignoring case, backed by a skip list. Adding,
+ * finding and removing an element by name are O(log n) expected, iterating and printing visit
+ * the elements in name order without a separate sort, and range returns the elements whose
+ * names fall between two bounds. Names are folded one character at a time like the ElementList
+ * index, so both lists agree on which names are equal.
+ *
+ * Elements with equal names are kept in the order they were added, and a lookup by name finds
+ * the first of them. The list is not thread safe.
+ * @param <E> The object type to be used
+ * @author Dillon Evans
+ */
+public class SortedElementList<E> implements Iterable<E>
+{
+    private static final int MAX_LEVEL = 32;
+
+    /**
+     * A node of the skip list with a forward link for each of its levels
+     */
+    private class Node
+    {
+        private String name;
+        private E value;
+        private long order;
+        private Node[] next;
+
+        /**
+         * Creates a new Node object
+         * @param name The name of the element
+         * @param value The element
+         * @param order The number of elements added before this one, which orders equal names
+         * @param level The number of levels the node is linked into
+         */
+        @SuppressWarnings("unchecked")
+        private Node(String name, E value, long order, int level)
+        {
+            this.name = name;
+            this.value = value;
+            this.order = order;
+            this.next = (Node[])new SortedElementList<?>.Node[level];
+        }
+    }
+
+    private Node head = new Node(null, null, Long.MIN_VALUE, MAX_LEVEL);
+    private int level = 1, elementCount = 0;
+    private long added = 0, seed = 0x9E3779B97F4A7C15L;
+
+    //The predecessors found by the last search at each level, reused to avoid allocating
+    private Node[] update = head.next.clone();
+
+    /**
+     * Adds an element after every element whose name sorts before or equal to its name
+     * @param name The name of the element
+     * @param element The element to add
+     */
+    public void add(String name, E element)
+    {
+        if (name == null) {throw new IllegalArgumentException("The element must have a name.");}
+        Node node = new Node(name, element, added++, randomLevel());
+        findPredecessors(name, node.order);
+        if (node.next.length > level)
+        {
+            for (int i = level; i < node.next.length; i++) {update[i] = head;}
+            level = node.next.length;
+        }
+        for (int i = 0; i < node.next.length; i++)
+        {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+        }
+        elementCount++;
+    }
+
+    /**
+     * Prints every element in the list in name order
+     */
+    public void print()
+    {
+        for (E element : this)
+        {
+            System.out.printf("%s\n", element);
+        }
+    }
+
+    /**
+     * Returns the first element with the specified name, ignoring case
+     * @param elementName The name of the element to search for
+     * @return The element with the specified name or null
+     */
+    public E getElement(String elementName)
+    {
+        Node node = ceiling(elementName);
+        return (node != null && compare(node.name, elementName) == 0) ? node.value : null;
+    }
+
+    /**
+     * Removes the first element with the specified name, ignoring case
+     * @param elementName The name of the element to find
+     * @return The value of the removed element, or null if no element has the name
+     */
+    public E removeElement(String elementName)
+    {
+        Node node = ceiling(elementName);
+        return (node != null && compare(node.name, elementName) == 0) ? remove(node) : null;
+    }
+
+    /**
+     * Removes the element with the first name in sort order and returns it
+     * @return The first element of the list
+     */
+    public E removeFirst()
+    {
+        return (!isEmpty()) ? remove(head.next[0]) : null;
+    }
+
+    /**
+     * Removes the element with the last name in sort order and returns it
+     * @return The last element of the list
+     */
+    public E removeLast()
+    {
+        if (isEmpty()) {return null;}
+        Node current = head;
+        for (int i = level - 1; i >= 0; i--)
+        {
+            while (current.next[i] != null) {current = current.next[i];}
+        }
+        return remove(current);
+    }
+
+    /**
+     * Returns the elements whose names are at least from and less than to, ignoring case, in
+     * name order. Finding the first element is O(log n), each further element is O(1).
+     * @param from The lowest name to include, or null to start at the first element
+     * @param to The name to stop before, or null to go to the end of the list
+     * @return The elements in the range
+     */
+    public Iterable<E> range(String from, String to)
+    {
+        return () -> new SortedElementListIterator((from != null) ? ceiling(from) : head.next[0], to);
+    }
+
+    /**
+     * Returns true if the element with the specified name exists in the list
+     * @param elementName The name of the element to search for
+     * @return True if the element with the specified name exists in the list
+     */
+    public boolean contains(String elementName) {return getElement(elementName) != null;}
+
+    /**
+     * Returns true if the number of elements in the list is = 0
+     * @return True if the number of elements in the list is = 0
+     */
+    public boolean isEmpty() {return elementCount == 0;}
+
+    /**
+     * Returns the number of elements in the list
+     * @return the number of elements in the list
+     */
+    public int getElementCount() {return elementCount;}
+
+    /**
+     * Returns the Iterator Object for the SortedElementList class, in name order
+     */
+    public Iterator<E> iterator() {return new SortedElementListIterator(head.next[0], null);}
+
+    /**
+     * Compares two names one character at a time, ignoring case
+     * @param first The first name
+     * @param second The second name
+     * @return A negative number, zero or a positive number as the first name sorts before,
+     * equal to or after the second
+     */
+    private static int compare(String first, String second)
+    {
+        int length = Math.min(first.length(), second.length());
+        for (int i = 0; i < length; i++)
+        {
+            char a = first.charAt(i), b = second.charAt(i);
+            if (a != b)
+            {
+                a = Character.toLowerCase(a);
+                b = Character.toLowerCase(b);
+                if (a != b) {return a - b;}
+            }
+        }
+        return first.length() - second.length();
+    }
+
+    /**
+     * Returns true if a node sorts before a name and order
+     * @param node The node
+     * @param name The name
+     * @param order The order of the position among equal names
+     * @return True if the node comes first
+     */
+    private boolean before(Node node, String name, long order)
+    {
+        int comparison = compare(node.name, name);
+        return comparison < 0 || (comparison == 0 && node.order < order);
+    }
+
+    /**
+     * Fills update with the last node before the position at each level
+     * @param name The name of the position
+     * @param order The order of the position among equal names
+     */
+    private void findPredecessors(String name, long order)
+    {
+        //A node found to come after the position at one level is not compared again below it
+        Node current = head, bound = null;
+        for (int i = level - 1; i >= 0; i--)
+        {
+            Node next;
+            while ((next = current.next[i]) != null && next != bound && before(next, name, order)) {current = next;}
+            bound = current.next[i];
+            update[i] = current;
+        }
+    }
+
+    /**
+     * Returns the first node whose name is at least the specified name
+     * @param name The name
+     * @return The node, or null if every name sorts before it
+     */
+    private Node ceiling(String name)
+    {
+        if (name == null) {return null;}
+        Node current = head, bound = null;
+        for (int i = level - 1; i >= 0; i--)
+        {
+            Node next;
+            while ((next = current.next[i]) != null && next != bound && compare(next.name, name) < 0) {current = next;}
+            bound = current.next[i];
+        }
+        return current.next[0];
+    }
+
+    /**
+     * Unlinks a node from every level it is part of
+     * @param node The node, which is in the list
+     * @return The value of the node
+     */
+    private E remove(Node node)
+    {
+        findPredecessors(node.name, node.order);
+        for (int i = 0; i < node.next.length; i++)
+        {
+            update[i].next[i] = node.next[i];
+            update[i] = null;
+        }
+        while (level > 1 && head.next[level - 1] == null) {level--;}
+        elementCount--;
+        return node.value;
+    }
+
+    /**
+     * Returns the level of a new node: each level is reached with probability 1/4
+     * @return The number of levels, at least 1
+     */
+    private int randomLevel()
+    {
+        //xorshift64 is enough to spread the levels and keeps the list free of shared state
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return Math.min(MAX_LEVEL, 1 + Long.numberOfTrailingZeros(seed | (1L << 62)) / 2);
+    }
+
+    /**
+     * The in-order Iterator for the SortedElementList class, optionally stopping before a name
+     */
+    private class SortedElementListIterator implements Iterator<E>
+    {
+        private Node current;
+        private String to;
+
+        /**
+         * Creates a new SortedElementListIterator object
+         * @param first The first node to visit
+         * @param to The name to stop before, or null to go to the end
+         */
+        private SortedElementListIterator(Node first, String to)
+        {
+            this.current = first;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return current != null && (to == null || compare(current.name, to) < 0);
+        }
+
+        @Override
+        public E next()
+        {
+            if (!hasNext()) {throw new NoSuchElementException();}
+            E value = current.value;
+            current = current.next[0];
+            return value;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.HashMap;
+
+/**
+ * A dictionary that encodes repeated strings as dense integer codes. Each distinct string
+ * is stored once no matter how many rows refer to it.
+ * @author Dillon Evans
+ */
+public class StringPool
+{
+    private HashMap<String, Integer> codes = new HashMap<>();
+    private volatile String[] values = new String[16];
+    private int size = 0;
+
+    /**
+     * Returns the code of the specified string, adding it to the pool if needed
+     * @param value The string to encode
+     * @return The code of the string, or -1 if the string is null
+     */
+    public synchronized int encode(String value)
+    {
+        if (value == null) {return -1;}
+        Integer code = codes.get(value);
+        if (code == null)
+        {
+            if (size == values.length)
+            {
+                String[] grown = new String[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            code = size;
+            values[size++] = value;
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the string with the specified code
+     * @param code The code returned by encode
+     * @return The string with the specified code, or null if the code is -1
+     */
+    public String decode(int code) {return (code >= 0) ? values[code] : null;}
+
+    /**
+     * Returns the number of distinct strings in the pool
+     * @return The number of distinct strings in the pool
+     */
+    public synchronized int size() {return size;}
+}
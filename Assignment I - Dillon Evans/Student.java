@@ -1,3 +1,5 @@
+import java.util.List;
+
 /**
  * This class is used to create Student Objects
  * @author Dillon Evans
@@ -6,25 +8,40 @@ public class Student
 {
     //Instance variables
     private String name;
+    private int id = -1;
     private int booksRented = 0;
 
-    //List to maintain.
-    private ElementList<Book> rentedBookList = new ElementList<>();
+    //The id of the student in the RentalRelation while they are renting, guarded by their stripe
+    int rentalId = -1;
+
+    //The stripe of the RentalRelation holding the student's rentals
+    final int rentalStripe = RentalRelation.nextStudentStripe();
 
     /**
      * Sets the number of books rented by the student
      * @param booksRented The number of books rented by the student
      */
-    public void setBooksRented(int booksRented) {this.booksRented = booksRented;}
+    public synchronized void setBooksRented(int booksRented) {this.booksRented = booksRented;}
 
     /**
      * Sets the name of the book
      * @param name The name of the book
      */
-    public void setName(String name) {this.name = name;}
+    public void setName(String name)
+    {
+        this.name = name;
+        this.id = IdRegistry.students().intern(name);
+    }
+
+    /**
+     * Returns the id of the student's name, shared by every student with the same name ignoring case
+     * @return The id of the name in IdRegistry.students(), or -1 if the name is not set
+     */
+    public int getId() {return id;}
 
     /**
-     * Rents the book to the student
+     * Rents the book to the student. The book's monitor is taken before the student's, 
+     * so this method must not be called while holding the student's monitor.
      * @param toRent The book to rent
      */
     public void rentBook(Book toRent) {toRent.checkOut(this);}
@@ -42,16 +59,41 @@ public class Student
     public String getName() {return name;}
 
     /**
-     * Returns a list of all books rented by the student
-     * @return
+     * Returns the books rented by the student, in the order they were rented
+     * @return The books rented by the student
+     */
+    public List<Book> getRentedBooks() {return RentalRelation.getDefault().booksOf(this);}
+
+    /**
+     * Returns the number of books the student is renting
+     * @return The number of books the student is renting
+     */
+    public int getRentedBookCount() {return RentalRelation.getDefault().bookCount(this);}
+
+    /**
+     * Returns the book with the specified title that the student is renting, ignoring case.
+     * Only the student's own rentals are searched, so a title shared by several books
+     * resolves to the copy the student has.
+     * @param title The title of the book
+     * @return The book, or null if the student is not renting it
      */
-    public ElementList<Book> getRentedBookList() {return rentedBookList;}
+    public Book getRentedBook(String title)
+    {
+        //A title that was never interned cannot belong to any book
+        int titleId = IdRegistry.titles().find(title);
+        if (titleId < 0) {return null;}
+        for (Book book : getRentedBooks())
+        {
+            if (book.getTitleId() == titleId) {return book;}
+        }
+        return null;
+    }
 
     /**
      * Returns the number of books rented
      * @return The number of books rented
      */
-    public int getBooksRented() {return booksRented;}
+    public synchronized int getBooksRented() {return booksRented;}
 
     /**
      * Returns the student's name when called
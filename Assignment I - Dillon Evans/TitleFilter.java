@@ -0,0 +1,143 @@
+/**
+ * A Bloom filter over the titles of a book list that answers most lookups of titles that are
+ * not in the catalog, such as typos, without touching the list. A title that was added is always
+ * reported as possibly present; a title that was not is reported as absent except for a small,
+ * tunable fraction of false positives. Titles are case folded like the ElementList index, so the
+ * filter agrees with getElement on which titles match.
+ *
+ * Books can be added but not removed, which matches the catalog. Adding is not thread safe and
+ * must happen before the filter is shared, while lookups may run concurrently.
+ * @author Dillon Evans
+ */
+public class TitleFilter
+{
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private ElementList<Book> bookList;
+    private long[] bits;
+    private int bitCount, hashCount;
+
+    /**
+     * Creates a filter holding every book in the list. The filter is sized so that, with as many
+     * titles as the list holds now, about the given fraction of absent titles pass the filter.
+     * @param bookList The books to filter lookups for
+     * @param falsePositiveRate The target false positive rate, between 0 and 1 exclusive
+     */
+    public TitleFilter(ElementList<Book> bookList, double falsePositiveRate)
+    {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {throw new IllegalArgumentException("The false positive rate must be between 0 and 1.");}
+        this.bookList = bookList;
+
+        //The optimal size is -n ln p / (ln 2)^2 bits with (m / n) ln 2 hash functions
+        long expected = Math.max(64, bookList.getElementCount());
+        long size = (long)Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        bitCount = (int)Math.min(Integer.MAX_VALUE - 63, Math.max(64, size));
+        hashCount = Math.max(1, (int)Math.round((double)bitCount / expected * Math.log(2)));
+        bits = new long[(bitCount + 63) / 64];
+
+        for (Book book : bookList) {add(book);}
+    }
+
+    /**
+     * Returns the false positive rate set by the library.titleFilter.fpp property
+     * @return The configured false positive rate, or the default if it is missing or invalid
+     */
+    public static double configuredFalsePositiveRate()
+    {
+        try
+        {
+            double rate = Double.parseDouble(System.getProperty("library.titleFilter.fpp", String.valueOf(DEFAULT_FALSE_POSITIVE_RATE)));
+            return (rate > 0 && rate < 1) ? rate : DEFAULT_FALSE_POSITIVE_RATE;
+        }
+        catch (NumberFormatException e)
+        {
+            return DEFAULT_FALSE_POSITIVE_RATE;
+        }
+    }
+
+    /**
+     * Adds a book to the filter. Books added to the list later must be added here too.
+     * @param book The book to add
+     */
+    public void add(Book book)
+    {
+        long hash = hash(book.getTitle());
+        int h1 = (int)hash, h2 = (int)(hash >>> 32);
+        for (int i = 0; i < hashCount; i++)
+        {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Returns false if the title is certainly not in the list
+     * @param title The title to check
+     * @return False if the title is not in the list, true if it might be
+     */
+    public boolean mightContain(String title)
+    {
+        if (title == null) {return false;}
+        long hash = hash(title);
+        int h1 = (int)hash, h2 = (int)(hash >>> 32);
+        for (int i = 0; i < hashCount; i++)
+        {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {return false;}
+        }
+        return true;
+    }
+
+    /**
+     * Looks up a book by its exact title, ignoring case, skipping the list when the filter
+     * rules the title out. Rejections and false positives are counted in LibraryMetrics.
+     * @param title The title of the book
+     * @return The book, or null if it is not in the list
+     */
+    public Book lookup(String title)
+    {
+        if (!mightContain(title))
+        {
+            LibraryMetrics.TITLE_FILTER_REJECTS.increment();
+            return null;
+        }
+        Book book = bookList.getElement(title);
+        if (book == null) {LibraryMetrics.TITLE_FILTER_FALSE_POSITIVES.increment();}
+        return book;
+    }
+
+    /**
+     * Returns the number of hash functions
+     * @return The number of hash functions
+     */
+    public int getHashCount() {return hashCount;}
+
+    /**
+     * Returns the size of the filter
+     * @return The number of bits in the filter
+     */
+    public int getBitCount() {return bitCount;}
+
+    /**
+     * Returns a 64 bit hash of the case folded title. The two halves are used as the
+     * independent hashes of double hashing.
+     * @param title The title
+     * @return The hash
+     */
+    private static long hash(String title)
+    {
+        //FNV-1a over the characters, finished with the MurmurHash3 mixer to spread the high bits
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < title.length(); i++)
+        {
+            hash ^= Character.toLowerCase(title.charAt(i));
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash | 1L << 32;
+    }
+}
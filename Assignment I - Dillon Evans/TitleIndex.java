@@ -0,0 +1,282 @@
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * A compressed trie (radix tree) over normalized names that supports prefix searches.
+ * Names are trimmed and case folded, so lookups match ElementList's case insensitive names.
+ * Every edge is labeled with a string, and a node with a single child and no value is
+ * merged into that child, so the depth of the tree is bounded by the number of branching
+ * points along a name rather than its length.
+ * @param <E> The type of the values stored in the index
+ * @author Dillon Evans
+ */
+public class TitleIndex<E>
+{
+    /**
+     * A node of the radix tree. Children are kept sorted by the first character of their
+     * label so they can be binary searched and visited in alphabetical order.
+     */
+    private class Node
+    {
+        private String label;
+        private E value;
+        private char[] keys = new char[0];
+        private ArrayList<Node> children = new ArrayList<>(0);
+
+        /**
+         * Creates a new Node object
+         * @param label The label of the edge leading to the node
+         * @param value The value stored at the node, or null
+         */
+        private Node(String label, E value)
+        {
+            this.label = label;
+            this.value = value;
+        }
+
+        /**
+         * Returns the index of the child whose label starts with c, or a negative insertion point
+         * @param c The first character of the label
+         * @return The index of the child, or -(insertion point) - 1
+         */
+        private int find(char c)
+        {
+            int low = 0, high = children.size() - 1;
+            while (low <= high)
+            {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < c) {low = mid + 1;}
+                else if (keys[mid] > c) {high = mid - 1;}
+                else {return mid;}
+            }
+            return -(low + 1);
+        }
+
+        /**
+         * Returns the child whose label starts with c
+         * @param c The first character of the label
+         * @return The child or null
+         */
+        private Node getChild(char c)
+        {
+            int index = find(c);
+            return (index >= 0) ? children.get(index) : null;
+        }
+
+        /**
+         * Adds a child, or replaces the child whose label starts with the same character
+         * @param child The child to add
+         */
+        private void putChild(Node child)
+        {
+            char c = child.label.charAt(0);
+            int index = find(c);
+            if (index >= 0)
+            {
+                children.set(index, child);
+                return;
+            }
+            index = -index - 1;
+            char[] grown = new char[keys.length + 1];
+            System.arraycopy(keys, 0, grown, 0, index);
+            System.arraycopy(keys, index, grown, index + 1, keys.length - index);
+            grown[index] = c;
+            keys = grown;
+            children.add(index, child);
+        }
+
+        /**
+         * Removes the child whose label starts with c
+         * @param c The first character of the label
+         */
+        private void removeChild(char c)
+        {
+            int index = find(c);
+            if (index < 0) {return;}
+            char[] shrunk = new char[keys.length - 1];
+            System.arraycopy(keys, 0, shrunk, 0, index);
+            System.arraycopy(keys, index + 1, shrunk, index, keys.length - index - 1);
+            keys = shrunk;
+            children.remove(index);
+        }
+    }
+
+    private Node root = new Node("", null);
+    private int size = 0;
+
+    /**
+     * Returns the normalized form of a name
+     * @param name The name to normalize
+     * @return The trimmed, case folded name
+     */
+    private static String normalize(String name) {return name.trim().toLowerCase(Locale.ROOT);}
+
+    /**
+     * Adds a name to the index. If the normalized name is already present, the existing
+     * value is kept, matching the first-match behavior of ElementList.
+     * @param name The name to index
+     * @param value The value to store for the name
+     */
+    public void add(String name, E value)
+    {
+        String key = normalize(name);
+        Node node = root;
+        int i = 0;
+
+        while (i < key.length())
+        {
+            Node child = node.getChild(key.charAt(i));
+            if (child == null)
+            {
+                node.putChild(new Node(key.substring(i), value));
+                size++;
+                return;
+            }
+
+            //Find how much of the child's label matches the rest of the key
+            int common = 0;
+            while (common < child.label.length() && i + common < key.length()
+                && child.label.charAt(common) == key.charAt(i + common))
+            {
+                common++;
+            }
+
+            if (common < child.label.length())
+            {
+                //Split the edge at the point where the key diverges
+                Node middle = new Node(child.label.substring(0, common), null);
+                child.label = child.label.substring(common);
+                middle.putChild(child);
+                node.putChild(middle);
+                child = middle;
+            }
+            node = child;
+            i += common;
+        }
+
+        if (node.value == null)
+        {
+            node.value = value;
+            size++;
+        }
+    }
+
+    /**
+     * Removes a name from the index, merging any nodes left with a single child
+     * @param name The name to remove
+     * @return The value stored for the name, or null if it was not present
+     */
+    public E remove(String name)
+    {
+        String key = normalize(name);
+        ArrayList<Node> path = new ArrayList<>();
+        Node node = root;
+        int i = 0;
+
+        path.add(root);
+        while (i < key.length())
+        {
+            node = node.getChild(key.charAt(i));
+            if (node == null || !key.startsWith(node.label, i)) {return null;}
+            i += node.label.length();
+            path.add(node);
+        }
+        if (node.value == null) {return null;}
+
+        E removed = node.value;
+        node.value = null;
+        size--;
+
+        //Prune the emptied leaf, then compress whichever node is left with one child
+        Node parent = path.get(path.size() - 1 > 0 ? path.size() - 2 : 0);
+        if (node != root && node.children.isEmpty())
+        {
+            parent.removeChild(node.label.charAt(0));
+            node = parent;
+            parent = (path.size() > 2) ? path.get(path.size() - 3) : null;
+        }
+        if (node != root && node.value == null && node.children.size() == 1 && parent != null)
+        {
+            Node child = node.children.get(0);
+            child.label = node.label + child.label;
+            parent.putChild(child);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the value stored for the exact name
+     * @param name The name to search for
+     * @return The value stored for the name, or null
+     */
+    public E get(String name)
+    {
+        String key = normalize(name);
+        Node node = root;
+        int i = 0;
+        while (i < key.length())
+        {
+            node = node.getChild(key.charAt(i));
+            if (node == null || !key.startsWith(node.label, i)) {return null;}
+            i += node.label.length();
+        }
+        return node.value;
+    }
+
+    /**
+     * Returns up to limit values whose names start with the prefix, in alphabetical order.
+     * Only the subtree below the prefix is visited and the search stops once limit values
+     * are found, so the cost does not depend on the size of the index.
+     * @param prefix The prefix to search for
+     * @param limit The maximum number of values to return
+     * @return The matching values
+     */
+    public ArrayList<E> prefixSearch(String prefix, int limit)
+    {
+        ArrayList<E> matches = new ArrayList<>();
+        String key = normalize(prefix);
+        Node node = root;
+        int i = 0;
+
+        while (i < key.length())
+        {
+            node = node.getChild(key.charAt(i));
+            if (node == null) {return matches;}
+
+            int remaining = key.length() - i;
+            if (node.label.length() >= remaining)
+            {
+                //The prefix ends inside this edge
+                if (!node.label.startsWith(key.substring(i))) {return matches;}
+                break;
+            }
+            if (!key.startsWith(node.label, i)) {return matches;}
+            i += node.label.length();
+        }
+        collect(node, matches, limit);
+        return matches;
+    }
+
+    /**
+     * Adds the values of the subtree to the list in alphabetical order until limit is reached
+     * @param node The root of the subtree
+     * @param matches The list of values found so far
+     * @param limit The maximum number of values to collect
+     */
+    private void collect(Node node, ArrayList<E> matches, int limit)
+    {
+        if (matches.size() >= limit) {return;}
+        if (node.value != null) {matches.add(node.value);}
+        for (Node child : node.children)
+        {
+            if (matches.size() >= limit) {return;}
+            collect(child, matches, limit);
+        }
+    }
+
+    /**
+     * Returns the number of names in the index
+     * @return The number of names in the index
+     */
+    public int size() {return size;}
+}
@@ -0,0 +1,275 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An unrolled linked list with the same append, lookup and removal operations as ElementList.
+ * Each block stores up to BLOCK_CAPACITY values and names in parallel arrays, so iterating and
+ * scanning the list reads contiguous memory instead of chasing one pointer per element, and a
+ * large list allocates one block object per BLOCK_CAPACITY elements instead of a node each.
+ *
+ * Unlike ElementList there is no hash index, so name lookups are linear scans over the name
+ * arrays. This variant suits lists that are mostly appended to and iterated.
+ * @param <E> The object type to be used
+ * @author Dillon Evans
+ */
+public class UnrolledElementList<E> implements Iterable<E>
+{
+    private static final int BLOCK_CAPACITY = 64;
+
+    /**
+     * A block of consecutive elements. The live elements occupy [start, start + count).
+     */
+    private class Block
+    {
+        private Object[] values = new Object[BLOCK_CAPACITY];
+        private String[] names = new String[BLOCK_CAPACITY];
+        private int start = 0, count = 0;
+        private Block next, previous;
+
+        /**
+         * Returns the value stored at the offset from the start of the block
+         * @param offset The offset of the element within the live elements
+         * @return The value stored at the offset
+         */
+        @SuppressWarnings("unchecked")
+        private E valueAt(int offset) {return (E)values[start + offset];}
+
+        /**
+         * Removes the element at the offset by shifting the elements after it down
+         * @param offset The offset of the element within the live elements
+         */
+        private void removeAt(int offset)
+        {
+            int index = start + offset, moved = count - offset - 1;
+            System.arraycopy(values, index + 1, values, index, moved);
+            System.arraycopy(names, index + 1, names, index, moved);
+            count--;
+            values[start + count] = null;
+            names[start + count] = null;
+        }
+
+        /**
+         * Moves the live elements to the front of the arrays
+         */
+        private void compact()
+        {
+            if (start == 0) {return;}
+            System.arraycopy(values, start, values, 0, count);
+            System.arraycopy(names, start, names, 0, count);
+            for (int i = count; i < start + count; i++)
+            {
+                values[i] = null;
+                names[i] = null;
+            }
+            start = 0;
+        }
+    }
+
+    private Block head, tail;
+    private int elementCount = 0;
+
+    /**
+     * Adds an element to the end of the list
+     * @param name The name of the element for indexing
+     * @param element The element to insert at the end of the list
+     */
+    public void append(String name, E element)
+    {
+        if (tail == null || tail.start + tail.count == BLOCK_CAPACITY)
+        {
+            Block block = new Block();
+            if (tail == null) {head = tail = block;}
+            else
+            {
+                block.previous = tail;
+                tail.next = block;
+                tail = block;
+            }
+        }
+        int index = tail.start + tail.count;
+        tail.values[index] = element;
+        tail.names[index] = name;
+        tail.count++;
+        elementCount++;
+    }
+
+    /**
+     * Prints every element in the list
+     */
+    public void print()
+    {
+        for (E element : this)
+        {
+            System.out.printf("%s\n", element);
+        }
+    }
+
+    /**
+     * Returns a specific element from the list based on its name, ignoring case
+     * @param elementName The name of the element to search for
+     * @return The element with the specified name or null
+     */
+    public E getElement(String elementName)
+    {
+        for (Block block = head; block != null; block = block.next)
+        {
+            int offset = find(block, elementName);
+            if (offset >= 0) {return block.valueAt(offset);}
+        }
+        return null;
+    }
+
+    /**
+     * Removes the first element of the list and returns it
+     * @return The first element of the list
+     */
+    public E removeFirst()
+    {
+        if (isEmpty()) {return null;}
+
+        //Advancing start makes removal from the front O(1)
+        E value = head.valueAt(0);
+        head.values[head.start] = null;
+        head.names[head.start] = null;
+        head.start++;
+        head.count--;
+        elementCount--;
+        if (head.count == 0) {unlink(head);}
+        return value;
+    }
+
+    /**
+     * Removes the last element of the list and returns it
+     * @return The last element of the list
+     */
+    public E removeLast()
+    {
+        if (isEmpty()) {return null;}
+
+        E value = tail.valueAt(tail.count - 1);
+        tail.removeAt(tail.count - 1);
+        elementCount--;
+        if (tail.count == 0) {unlink(tail);}
+        return value;
+    }
+
+    /**
+     * Removes the element of the list with the specified name, ignoring case
+     * @param elementName The name of the element to find
+     * @return The value of the specified element
+     */
+    public E removeElement(String elementName)
+    {
+        for (Block block = head; block != null; block = block.next)
+        {
+            int offset = find(block, elementName);
+            if (offset >= 0)
+            {
+                E value = block.valueAt(offset);
+                block.removeAt(offset);
+                elementCount--;
+                if (block.count == 0) {unlink(block);}
+                else {mergeWithNext(block);}
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the element with the specified name exists in the list
+     * @param elementName The name of the element to search for
+     * @return True if the element with the specified name exists in the list
+     */
+    public boolean contains(String elementName){return getElement(elementName) != null;}
+
+    /**
+     * Returns true if the number of elements in the list is = 0
+     * @return True if the number of elements in the list is = 0
+     */
+    public boolean isEmpty(){return elementCount == 0;}
+
+    /**
+     * Returns the number of elements in the list
+     * @return the number of elements in the list
+     */
+    public int getElementCount() {return elementCount;}
+
+    /**
+     * Returns the offset of the first element in the block with the specified name
+     * @param block The block to search
+     * @param elementName The name of the element to search for
+     * @return The offset of the element or -1
+     */
+    private int find(Block block, String elementName)
+    {
+        String[] names = block.names;
+        for (int i = block.start, end = block.start + block.count; i < end; i++)
+        {
+            if (names[i].equalsIgnoreCase(elementName)) {return i - block.start;}
+        }
+        return -1;
+    }
+
+    /**
+     * Removes an empty block from the chain of blocks
+     * @param block The block to remove
+     */
+    private void unlink(Block block)
+    {
+        if (block.previous != null) {block.previous.next = block.next;}
+        else {head = block.next;}
+        if (block.next != null) {block.next.previous = block.previous;}
+        else {tail = block.previous;}
+    }
+
+    /**
+     * Merges the next block into this one when together they fit in half a block,
+     * which keeps the blocks dense after removals from the middle.
+     * @param block The block that lost an element
+     */
+    private void mergeWithNext(Block block)
+    {
+        Block next = block.next;
+        if (next == null || block.count + next.count > BLOCK_CAPACITY / 2) {return;}
+
+        block.compact();
+        System.arraycopy(next.values, next.start, block.values, block.count, next.count);
+        System.arraycopy(next.names, next.start, block.names, block.count, next.count);
+        block.count += next.count;
+        unlink(next);
+    }
+
+    /**
+     * Returns the Iterator Object for the UnrolledElementList class
+     */
+    public Iterator<E> iterator() {return new UnrolledElementListIterator();}
+
+    /**
+     * The Iterator for the UnrolledElementList class
+     */
+    private class UnrolledElementListIterator implements Iterator<E>
+    {
+        Block current = head;
+        int offset = 0;
+
+        @Override
+        public boolean hasNext()
+        {
+            return current != null && offset < current.count;
+        }
+
+        @Override
+        public E next()
+        {
+            if (!hasNext()) {throw new NoSuchElementException();}
+            E value = current.valueAt(offset++);
+            if (offset == current.count)
+            {
+                current = current.next;
+                offset = 0;
+            }
+            return value;
+        }
+    }
+}
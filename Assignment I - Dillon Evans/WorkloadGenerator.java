@@ -0,0 +1,407 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A headless load generator for the rental system. It builds a synthetic catalog and student
+ * population, then replays a stream of rents and returns against the Book/Student/ElementList
+ * model at full speed, the same way the Driver menu does: the student and the book are looked up
+ * by name and then Student.rentBook or Student.returnBook is called. Title popularity follows a
+ * Zipf distribution so a few books are in high demand and build up waitlists.
+ *
+ * Usage: java WorkloadGenerator [key=value ...]
+ *   books=10000      number of titles in the catalog
+ *   students=50000   number of students
+ *   copies=3         the most copies of a title, each title gets 1 to copies
+ *   skew=1.0         Zipf exponent of title popularity, 0 is uniform
+ *   returns=0.5      fraction of operations that are returns
+ *   maxLoans=5       a student holding this many books returns one instead of renting
+ *   ops=1000000      number of measured operations
+ *   warmup=200000    number of operations run before measuring
+ *   threads=1        number of threads, each driving its own share of the students
+ *   seed=3353        random seed
+ *
+ * The operations are generated before the clock starts, so the reported throughput and latency
+ * percentiles only include the library itself.
+ * @author Dillon Evans
+ */
+public class WorkloadGenerator
+{
+    private int books = 10_000, students = 50_000, copies = 3, maxLoans = 5, threads = 1;
+    private long operations = 1_000_000, warmup = 200_000, seed = 3353;
+    private double skew = 1.0, returns = 0.5;
+
+    private ElementList<Book> bookList = new ElementList<>();
+    private ElementList<Student> studentList = new ElementList<>();
+    private String[] titles, names;
+
+    //The students and the index of every student by the id of their name in IdRegistry.students()
+    private Student[] population;
+    private int[] indexOfStudentId;
+
+    //The workers of the current run, which are told about the students their returns promote
+    private Worker[] running;
+    private double[] popularity;
+
+    /**
+     * The operations and latencies of one thread
+     */
+    private static class Worker
+    {
+        //Each operation is a student, a title drawn by popularity, whether it is a return and
+        //which holder takes the return if the student holds nothing
+        private int[] studentOf, bookOf, holderPick;
+        private boolean[] isReturn;
+        private LatencyHistogram rentLatency = new LatencyHistogram(), returnLatency = new LatencyHistogram();
+        private long rents, returnsDone, returnsAsRents, rentsAsReturns;
+
+        //The students of this worker known to hold a book, and the position of each one in
+        //holders by student / stride, or -1. Only a student's own returns take books away,
+        //and those run on this worker, so every student in the set does hold a book.
+        private int[] holders, holderSlot;
+        private int holderCount, stride;
+
+        //Students of this worker that other workers' returns promoted from a waitlist
+        private ConcurrentLinkedQueue<Integer> promoted = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Adds or removes a student from the holders after an operation
+         * @param student The index of the student, one of this worker's
+         * @param holding True if the student holds a book
+         */
+        private void updateHolder(int student, boolean holding)
+        {
+            int slot = holderSlot[student / stride];
+            if (holding && slot < 0)
+            {
+                holderSlot[student / stride] = holderCount;
+                holders[holderCount++] = student;
+            }
+            else if (!holding && slot >= 0)
+            {
+                int last = holders[--holderCount];
+                holders[slot] = last;
+                holderSlot[last / stride] = slot;
+                holderSlot[student / stride] = -1;
+            }
+        }
+    }
+
+    /**
+     * The program entry point
+     * @param args The workload parameters as key=value pairs
+     */
+    public static void main(String[] args)
+    {
+        try
+        {
+            WorkloadGenerator generator = new WorkloadGenerator();
+            for (String arg : args) {generator.configure(arg);}
+            generator.run();
+        }
+        catch (Exception e)
+        {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Sets a workload parameter
+     * @param arg The parameter as key=value
+     * @throws Exception If the parameter is unknown or its value is invalid
+     */
+    private void configure(String arg) throws Exception
+    {
+        int split = arg.indexOf('=');
+        if (split < 0) {throw new Exception("Expected key=value but found " + arg);}
+        String key = arg.substring(0, split), value = arg.substring(split + 1);
+        try
+        {
+            switch (key)
+            {
+                case "books": books = Integer.parseInt(value); break;
+                case "students": students = Integer.parseInt(value); break;
+                case "copies": copies = Integer.parseInt(value); break;
+                case "maxLoans": maxLoans = Integer.parseInt(value); break;
+                case "threads": threads = Integer.parseInt(value); break;
+                case "ops": operations = Long.parseLong(value); break;
+                case "warmup": warmup = Long.parseLong(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                case "skew": skew = Double.parseDouble(value); break;
+                case "returns": returns = Double.parseDouble(value); break;
+                default: throw new Exception("Unknown parameter " + key);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new Exception("Invalid value for " + key + ": " + value);
+        }
+        if (books < 1 || students < 1 || copies < 1 || maxLoans < 1 || threads < 1 || threads > students
+            || operations < 0 || warmup < 0 || skew < 0 || returns < 0 || returns > 1)
+        {
+            throw new Exception("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    /**
+     * Builds the library, runs the warmup and the measured operations, and prints the report
+     * @throws Exception If a thread is interrupted
+     */
+    private void run() throws Exception
+    {
+        long buildStart = System.nanoTime();
+        buildLibrary();
+        System.out.printf("Built %d books and %d students in %.1f ms\n", books, students, (System.nanoTime() - buildStart) / 1e6);
+
+        if (warmup > 0) {replay(warmup, seed ^ 0x5DEECE66DL);}
+        Worker[] workers = new Worker[threads];
+        for (int t = 0; t < threads; t++) {workers[t] = generate(t, share(operations, t), seed + t);}
+        long elapsed = execute(workers);
+
+        report(workers, elapsed);
+    }
+
+    /**
+     * Creates the synthetic catalog, the students and the title popularity distribution
+     */
+    private void buildLibrary()
+    {
+        SplittableRandom random = new SplittableRandom(seed);
+        BookCatalog catalog = new BookCatalog();
+        titles = new String[books];
+        names = new String[students];
+        population = new Student[students];
+
+        for (int i = 0; i < books; i++)
+        {
+            Book book = new Book(catalog);
+            titles[i] = "Synthetic Title " + i;
+            book.setTitle(titles[i]);
+            book.setSecondAuthor("");
+            book.setNumberOfCopies(1 + random.nextInt(copies));
+            bookList.append(titles[i], book);
+        }
+        for (int i = 0; i < students; i++)
+        {
+            population[i] = new Student();
+            names[i] = "Student, Synthetic " + i;
+            population[i].setName(names[i]);
+            studentList.append(names[i], population[i]);
+        }
+        indexOfStudentId = new int[IdRegistry.students().size()];
+        for (int i = 0; i < students; i++) {indexOfStudentId[population[i].getId()] = i;}
+
+        //The cumulative Zipf distribution, title i is the (i + 1)th most popular
+        popularity = new double[books];
+        double total = 0;
+        for (int i = 0; i < books; i++)
+        {
+            total += 1 / Math.pow(i + 1, skew);
+            popularity[i] = total;
+        }
+        for (int i = 0; i < books; i++) {popularity[i] /= total;}
+    }
+
+    /**
+     * Returns the number of operations run by one thread
+     * @param total The total number of operations
+     * @param thread The index of the thread
+     * @return The thread's share of the operations
+     */
+    private long share(long total, int thread)
+    {
+        return total / threads + ((thread < total % threads) ? 1 : 0);
+    }
+
+    /**
+     * Runs unmeasured operations so the JIT has compiled the hot paths
+     * @param count The number of operations
+     * @param warmupSeed The seed of the warmup operations
+     * @throws Exception If a thread is interrupted
+     */
+    private void replay(long count, long warmupSeed) throws Exception
+    {
+        Worker[] workers = new Worker[threads];
+        for (int t = 0; t < threads; t++) {workers[t] = generate(t, share(count, t), warmupSeed + t);}
+        execute(workers);
+    }
+
+    /**
+     * Generates the operations of one thread. Thread t drives students t, t + threads, ...
+     * @param thread The index of the thread
+     * @param count The number of operations
+     * @param threadSeed The seed of the thread
+     * @return The worker holding the operations
+     */
+    private Worker generate(int thread, long count, long threadSeed)
+    {
+        if (count > Integer.MAX_VALUE - 8) {throw new IllegalArgumentException("Too many operations per thread");}
+        SplittableRandom random = new SplittableRandom(threadSeed);
+        int ownStudents = (students - thread + threads - 1) / threads;
+        Worker worker = new Worker();
+        worker.studentOf = new int[(int)count];
+        worker.bookOf = new int[(int)count];
+        worker.holderPick = new int[(int)count];
+        worker.isReturn = new boolean[(int)count];
+        worker.stride = threads;
+        worker.holders = new int[ownStudents];
+        worker.holderSlot = new int[ownStudents];
+        Arrays.fill(worker.holderSlot, -1);
+
+        for (int i = 0; i < count; i++)
+        {
+            worker.studentOf[i] = thread + random.nextInt(ownStudents) * threads;
+            worker.isReturn[i] = random.nextDouble() < returns;
+            worker.holderPick[i] = random.nextInt(ownStudents);
+            int rank = Arrays.binarySearch(popularity, random.nextDouble());
+            worker.bookOf[i] = Math.min(books - 1, (rank >= 0) ? rank : -rank - 1);
+        }
+        return worker;
+    }
+
+    /**
+     * Runs every worker on its own thread
+     * @param workers The workers to run
+     * @return The wall clock time from the start of the first to the end of the last, in nanoseconds
+     * @throws Exception If a thread is interrupted
+     */
+    private long execute(Worker[] workers) throws Exception
+    {
+        CountDownLatch ready = new CountDownLatch(workers.length), go = new CountDownLatch(1);
+        running = workers;
+        Thread[] workerThreads = new Thread[workers.length];
+        for (int t = 0; t < workers.length; t++)
+        {
+            Worker worker = workers[t];
+            workerThreads[t] = new Thread(() ->
+            {
+                ready.countDown();
+                try
+                {
+                    go.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                work(worker);
+            }, "workload-" + t);
+            workerThreads[t].start();
+        }
+
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : workerThreads) {thread.join();}
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs the operations of one worker. A return drawn for a student holding nothing is made by
+     * another student of the worker who holds a book, so the configured mix of rents and returns
+     * is kept. Only when none of them holds a book does the return become a rent, and a rent by a
+     * student at the loan limit becomes a return; both are counted and reported.
+     * @param worker The worker to run
+     */
+    private void work(Worker worker)
+    {
+        for (int i = 0; i < worker.studentOf.length; i++)
+        {
+            for (Integer promoted = worker.promoted.poll(); promoted != null; promoted = worker.promoted.poll())
+            {
+                worker.updateHolder(promoted, population[promoted].getRentedBookCount() > 0);
+            }
+
+            int studentIndex = worker.studentOf[i], book = worker.bookOf[i];
+            boolean isReturn = worker.isReturn[i];
+            if (isReturn && worker.holderSlot[studentIndex / worker.stride] < 0 && worker.holderCount > 0)
+            {
+                studentIndex = worker.holders[worker.holderPick[i] % worker.holderCount];
+            }
+
+            long start = System.nanoTime();
+            Student student = studentList.getElement(names[studentIndex]);
+            List<Book> held = (isReturn || student.getRentedBookCount() >= maxLoans) ? student.getRentedBooks() : null;
+
+            if (held == null || held.isEmpty())
+            {
+                student.rentBook(bookList.getElement(titles[book]));
+                worker.rentLatency.record(System.nanoTime() - start);
+                worker.rents++;
+                if (isReturn) {worker.returnsAsRents++;}
+            }
+            else
+            {
+                //The drawn title picks which of the held books is returned
+                Book returned = bookList.getElement(held.get(book % held.size()).getTitle());
+                student.returnBook(returned);
+                worker.returnLatency.record(System.nanoTime() - start);
+                worker.returnsDone++;
+                if (!isReturn) {worker.rentsAsReturns++;}
+
+                //The copy may have gone to a waiting student, who is now a holder of their worker
+                for (Student renter : returned.getRenters())
+                {
+                    int renterIndex = indexOfStudentId[renter.getId()];
+                    running[renterIndex % threads].promoted.add(renterIndex);
+                }
+            }
+            worker.updateHolder(studentIndex, student.getRentedBookCount() > 0);
+        }
+    }
+
+    /**
+     * Prints the throughput, the latency percentiles and the final state of the library
+     * @param workers The measured workers
+     * @param elapsed The wall clock time of the measured run in nanoseconds
+     */
+    private void report(Worker[] workers, long elapsed)
+    {
+        LatencyHistogram rentLatency = new LatencyHistogram(), returnLatency = new LatencyHistogram(), allLatency = new LatencyHistogram();
+        long rents = 0, returned = 0, returnsAsRents = 0, rentsAsReturns = 0;
+        for (Worker worker : workers)
+        {
+            rentLatency.add(worker.rentLatency);
+            returnLatency.add(worker.returnLatency);
+            allLatency.add(worker.rentLatency);
+            allLatency.add(worker.returnLatency);
+            rents += worker.rents;
+            returned += worker.returnsDone;
+            returnsAsRents += worker.returnsAsRents;
+            rentsAsReturns += worker.rentsAsReturns;
+        }
+
+        long loans = 0, waiting = 0, longestWaitlist = 0;
+        for (Book book : bookList)
+        {
+            loans += book.getRenterCount();
+            waiting += book.getWaitlistDepth();
+            longestWaitlist = Math.max(longestWaitlist, book.getWaitlistDepth());
+        }
+
+        System.out.printf("Workload: books=%d students=%d copies=1-%d skew=%.2f returns=%.2f maxLoans=%d threads=%d\n",
+            books, students, copies, skew, returns, maxLoans, threads);
+        System.out.printf("Operations: %d (%d rents, %d returns) in %.1f ms\n", rents + returned, rents, returned, elapsed / 1e6);
+        System.out.printf("Converted: %d returns became rents because no student held a book, %d rents became returns at the loan limit\n",
+            returnsAsRents, rentsAsReturns);
+        System.out.printf("Throughput: %.0f ops/sec\n", (rents + returned) / (elapsed / 1e9));
+        System.out.printf("%-8s %10s %10s %10s %10s %10s\n", "latency", "p50", "p90", "p99", "p99.9", "max");
+        printLatency("rent", rentLatency);
+        printLatency("return", returnLatency);
+        printLatency("all", allLatency);
+        System.out.printf("Final state: %d active loans, %d students waitlisted, longest waitlist %d\n", loans, waiting, longestWaitlist);
+    }
+
+    /**
+     * Prints one row of the latency table
+     * @param name The name of the row
+     * @param latency The latencies of the row
+     */
+    private static void printLatency(String name, LatencyHistogram latency)
+    {
+        System.out.printf("%-8s %8dns %8dns %8dns %8dns %8dns\n", name, latency.getPercentile(50), latency.getPercentile(90),
+            latency.getPercentile(99), latency.getPercentile(99.9), latency.getMax());
+    }
+}